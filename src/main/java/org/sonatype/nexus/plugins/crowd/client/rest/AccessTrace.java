@@ -0,0 +1,218 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.client.rest.TraceFormat.Op;
+import org.sonatype.nexus.plugins.crowd.client.rest.TraceFormat.TracedCache;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Records the cache lookups and invalidations to a trace file, in the {@link TraceFormat}, for
+ * {@link CacheSimulator} to replay against other cache sizes, expiries and eviction policies.
+ *
+ * Keys are hashed with a key drawn for each trace, so a trace tells apart the users without naming
+ * them. Lookups are queued and written by a background thread; when the writer falls behind,
+ * lookups are dropped rather than slowing down the callers, and counted. Recording stops by itself
+ * once the trace reaches its maximum size.
+ */
+final class AccessTrace {
+    private static final Logger LOG = LoggerFactory.getLogger(AccessTrace.class);
+
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path directory;
+    private volatile Recording recording;
+
+    /**
+     * @param directory where the traces are written, null to never record
+     */
+    AccessTrace(Path directory, CrowdPluginConfiguration config) {
+        this.directory = directory;
+        configure(config);
+    }
+
+    /**
+     * Starts or stops recording. A new trace file is started each time recording starts.
+     */
+    synchronized void configure(CrowdPluginConfiguration config) {
+        boolean enabled = directory != null && config.isAccessTrace();
+        Recording current = recording;
+        if (current != null && (!enabled || current.maxBytes != config.getAccessTraceMaxSize() * 1024L * 1024L)) {
+            stop(current);
+            current = null;
+        }
+        if (current == null && enabled) {
+            Path file = directory.resolve("access-trace-" + LocalDateTime.now().format(FILE_TIME) + ".bin");
+            try {
+                recording = new Recording(file, config.getAccessTraceMaxSize() * 1024L * 1024L);
+                LOG.info("Recording the Crowd cache lookups to {}", file);
+            } catch (IOException ioe) {
+                LOG.warn("Unable to record the Crowd cache lookups to {}: {}", file, ioe.toString());
+            }
+        }
+    }
+
+    void hit(TracedCache cache, String key) {
+        Recording current = recording;
+        if (current != null) {
+            current.add(cache, Op.HIT, key);
+        }
+    }
+
+    void miss(TracedCache cache, String key) {
+        Recording current = recording;
+        if (current != null) {
+            current.add(cache, Op.MISS, key);
+        }
+    }
+
+    /**
+     * @param key the invalidated username, null when every cache is cleared
+     */
+    void invalidated(String key) {
+        Recording current = recording;
+        if (current != null) {
+            current.add(TracedCache.USERS, key == null ? Op.INVALIDATE_ALL : Op.INVALIDATE, key);
+        }
+    }
+
+    synchronized void close() {
+        Recording current = recording;
+        if (current != null) {
+            stop(current);
+        }
+    }
+
+    private synchronized void stop(Recording stopped) {
+        if (recording == stopped) {
+            recording = null;
+            stopped.writer.interrupt();
+        }
+    }
+
+    private static final class Entry {
+        final TracedCache cache;
+        final Op op;
+        final long time = System.currentTimeMillis();
+        final long key;
+
+        Entry(TracedCache cache, Op op, long key) {
+            this.cache = cache;
+            this.op = op;
+            this.key = key;
+        }
+    }
+
+    private final class Recording {
+        final Path file;
+        final long maxBytes;
+        final HashFunction hash;
+        final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicLong dropped = new AtomicLong();
+        final DataOutputStream out;
+        final Thread writer;
+        long bytes;
+        long previous;
+
+        Recording(Path file, long maxBytes) throws IOException {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            SecureRandom random = new SecureRandom();
+            hash = Hashing.sipHash24(random.nextLong(), random.nextLong());
+
+            Files.createDirectories(file.getParent());
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            HotPrincipals.restrict(file);
+            previous = System.currentTimeMillis();
+            out.writeInt(TraceFormat.MAGIC);
+            out.writeLong(previous);
+            bytes = Integer.BYTES + Long.BYTES;
+
+            writer = new Thread(this::write, "crowd-plugin-access-trace");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void add(TracedCache cache, Op op, String key) {
+            long hashed = key == null ? 0 : hash.hashString(key, StandardCharsets.UTF_8).asLong();
+            if (!queue.offer(new Entry(cache, op, hashed))) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        private void write() {
+            List<Entry> batch = new ArrayList<>();
+            try {
+                while (bytes < maxBytes) {
+                    Entry first;
+                    try {
+                        first = queue.take();
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    write(batch);
+                    batch.clear();
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+                // lookups made until recording stopped
+                queue.drainTo(batch);
+                write(batch);
+                out.flush();
+            } catch (IOException ioe) {
+                LOG.warn("Unable to record the Crowd cache lookups to {}: {}", file, ioe.toString());
+            } finally {
+                stop(this);
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    LOG.debug("Unable to close {}", file, ioe);
+                }
+            }
+            LOG.info("Stopped recording the Crowd cache lookups to {}: {} bytes, {} lookups dropped", file, bytes, dropped.get());
+        }
+
+        private void write(List<Entry> batch) throws IOException {
+            for (Entry entry : batch) {
+                if (bytes >= maxBytes) {
+                    return;
+                }
+                // queued from several threads, entries are only roughly in order
+                long delta = Math.max(entry.time - previous, 0);
+                previous += delta;
+                bytes += TraceFormat.write(out, entry.cache, entry.op, delta, entry.key);
+            }
+        }
+    }
+}
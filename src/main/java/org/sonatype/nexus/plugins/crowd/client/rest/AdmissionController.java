@@ -0,0 +1,231 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+import com.codahale.metrics.Meter;
+
+/**
+ * Limits the rate and the concurrency of the requests sent to Crowd, which is usually shared with
+ * other Atlassian applications.
+ * 
+ * A share of both limits is reserved to {@link RequestClass#INTERACTIVE} requests, and background
+ * requests may only use half of what is left, so bulk listings and warm-ups never starve logins.
+ * A request that cannot be admitted within the admission timeout is shed with a
+ * {@link RequestRejectedException}.
+ * 
+ * The limits are resized in place when the configuration changes, so that requests admitted before
+ * keep counting against them.
+ */
+class AdmissionController {
+    private volatile long timeoutNanos;
+
+    // all requests take from the total, the others also from the capacity of their class
+    private final ResizableSemaphore total = new ResizableSemaphore();
+    private final ResizableSemaphore nonInteractive = new ResizableSemaphore();
+    private final ResizableSemaphore background = new ResizableSemaphore();
+
+    private final TokenBucket bucket = new TokenBucket();
+    private volatile double bulkTokenFloor;
+    private volatile double backgroundTokenFloor;
+
+    private final Meter shed;
+
+    AdmissionController(CrowdPluginConfiguration config, CrowdMetrics metrics) {
+        configure(config);
+        shed = metrics.getRegistry().meter(CrowdMetrics.PREFIX + "admission.shed");
+    }
+
+    /**
+     * Applies new limits. Requests already admitted keep their permits, a lowered limit admits new
+     * requests once enough of them are done; the tokens left in the bucket are kept.
+     */
+    synchronized void configure(CrowdPluginConfiguration config) {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdmissionTimeout());
+        double reserve = Math.min(config.getInteractiveReservePercent(), 100) / 100d;
+
+        int concurrency = config.getCrowdMaxConcurrentRequests() > 0
+                ? config.getCrowdMaxConcurrentRequests() : config.getHttpMaxConnections();
+        int shared = Math.max(1, (int) Math.floor(concurrency * (1 - reserve)));
+        total.resize(concurrency);
+        nonInteractive.resize(shared);
+        background.resize(Math.max(1, shared / 2));
+
+        int rate = config.getCrowdMaxRequestsPerSecond();
+        bucket.setRate(rate);
+        // a full bucket holds one second worth of tokens, floors leave room for at least one token
+        bulkTokenFloor = Math.max(0, rate - 1) * reserve;
+        backgroundTokenFloor = Math.max(0, rate - 1) * (1 + reserve) / 2;
+    }
+
+    /**
+     * Waits until a request of the given class may be sent.
+     * 
+     * @param requestClass
+     * @return the permit to close once the response has been consumed
+     * @throws RequestRejectedException if the request could not be admitted in time
+     */
+    Permit acquire(RequestClass requestClass) throws RequestRejectedException {
+        // never wait past the deadline of the operation
+        long deadline = System.nanoTime() + Math.min(timeoutNanos, Deadline.remainingNanos());
+        Permit permit = new Permit(requestClass);
+        try {
+            if (requestClass != RequestClass.INTERACTIVE) {
+                permit.take(nonInteractive, deadline);
+            }
+            if (requestClass == RequestClass.BACKGROUND) {
+                permit.take(background, deadline);
+            }
+            permit.take(total, deadline);
+
+            if (bucket.isLimited()) {
+                double floor = requestClass == RequestClass.INTERACTIVE ? 0
+                        : requestClass == RequestClass.BULK ? bulkTokenFloor : backgroundTokenFloor;
+                bucket.take(floor, deadline, requestClass);
+            }
+            return permit;
+
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            permit.close();
+            throw reject(requestClass);
+        } catch (RequestRejectedException rre) {
+            permit.close();
+            throw rre;
+        }
+    }
+
+    private RequestRejectedException reject(RequestClass requestClass) {
+        shed.mark();
+        return new RequestRejectedException(requestClass + " request to Crowd shed by admission control");
+    }
+
+    /**
+     * The capacity held by an admitted request.
+     */
+    final class Permit implements AutoCloseable {
+        private final RequestClass requestClass;
+        private final Semaphore[] held = new Semaphore[3];
+        private int count;
+
+        private Permit(RequestClass requestClass) {
+            this.requestClass = requestClass;
+        }
+
+        /**
+         * @return the class the request was admitted as
+         */
+        RequestClass getRequestClass() {
+            return requestClass;
+        }
+
+        private void take(Semaphore semaphore, long deadline) throws InterruptedException, RequestRejectedException {
+            if (!semaphore.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                throw reject(requestClass);
+            }
+            held[count++] = semaphore;
+        }
+
+        @Override
+        public void close() {
+            while (count > 0) {
+                held[--count].release();
+            }
+        }
+    }
+
+    /**
+     * A fair semaphore whose number of permits can be changed while some are held.
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private int size;
+
+        ResizableSemaphore() {
+            super(0, true);
+        }
+
+        /**
+         * Sets the number of permits, those held included; available permits may go negative.
+         */
+        synchronized void resize(int permits) {
+            if (permits > size) {
+                release(permits - size);
+            } else if (permits < size) {
+                reducePermits(size - permits);
+            }
+            size = permits;
+        }
+    }
+
+    /**
+     * Refills at <code>rate</code> tokens per second, up to one second of burst. A rate of zero
+     * means no limit.
+     */
+    private final class TokenBucket {
+        private double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        /**
+         * Changes the rate, starting full when the limit is new and keeping the tokens otherwise.
+         */
+        synchronized void setRate(double rate) {
+            if (this.rate == 0) {
+                tokens = rate;
+                lastRefill = System.nanoTime();
+            } else {
+                refill();
+                tokens = Math.min(tokens, rate);
+            }
+            this.rate = rate;
+        }
+
+        synchronized boolean isLimited() {
+            return rate > 0;
+        }
+
+        /**
+         * Takes a token once more than <code>floor</code> tokens are available.
+         */
+        void take(double floor, long deadline, RequestClass requestClass) throws InterruptedException, RequestRejectedException {
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    if (rate == 0) {
+                        // the limit was lifted while waiting
+                        return;
+                    }
+                    refill();
+                    if (tokens - 1 >= floor) {
+                        tokens -= 1;
+                        return;
+                    }
+                    waitNanos = (long) ((floor + 1 - tokens) * 1e9 / rate);
+                }
+                if (System.nanoTime() + waitNanos > deadline) {
+                    throw reject(requestClass);
+                }
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+        }
+    }
+}
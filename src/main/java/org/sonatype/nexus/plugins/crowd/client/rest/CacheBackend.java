@@ -0,0 +1,53 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.sonatype.nexus.plugins.crowd.config.CacheSettings;
+
+/**
+ * Creates the plugin's caches. Implementations named by the <code>cacheBackend</code> property
+ * need a public constructor taking the
+ * {@link org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration}; a backend is replaced,
+ * with all its caches, when the property changes.
+ */
+public interface CacheBackend {
+
+    /**
+     * Creates a cache. Several caches of the same name may exist while one replaces the other.
+     *
+     * @param name name of the cache, for monitoring
+     * @param valueClass
+     * @param settings size and expiry of the cache
+     * @param codec writes values outside of the heap or weighs them, null if they cannot be
+     * @param discarded told of each key whose entry is replaced, removed, expired or evicted, null if no one cares
+     * @param reloader loads the current value of a key in the background, null if entries cannot be
+     *            refreshed; backends may ignore it
+     * @return the cache
+     */
+    <V> PluginCache<V> create(String name, Class<V> valueClass, CacheSettings settings, CacheCodec<V> codec,
+            Consumer<String> discarded, Function<String, CompletableFuture<V>> reloader);
+
+    /**
+     * Releases a cache that is no longer used.
+     *
+     * @param cache a cache created by this backend
+     */
+    void destroy(PluginCache<?> cache);
+
+    /**
+     * Releases every cache created by this backend.
+     */
+    void close();
+}
@@ -0,0 +1,41 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the values of a cache to bytes and reads them back, for a {@link CacheBackend} keeping
+ * values outside of the heap or weighing them. Implementations are stateless.
+ */
+public interface CacheCodec<V> {
+
+    /**
+     * @param value
+     * @return the bytes of <code>value</code>, positioned at their start
+     * @throws java.io.UncheckedIOException if <code>value</code> cannot be written
+     */
+    ByteBuffer encode(V value);
+
+    /**
+     * @param bytes as returned by {@link #encode}, read from their position
+     * @return the value
+     * @throws java.io.UncheckedIOException if <code>bytes</code> cannot be read
+     */
+    V decode(ByteBuffer bytes);
+
+    /**
+     * @return true if <code>bytes</code> hold <code>value</code>
+     */
+    default boolean matches(V value, ByteBuffer bytes) {
+        return value.equals(decode(bytes));
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+/**
+ * Notified when the groups cached for users are discarded, so that information derived from them
+ * can be discarded as well.
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * Called when the groups cached for <code>username</code> expired, were evicted or replaced, and
+     * whenever the user is invalidated, even if nothing was cached for it.
+     *
+     * @param username canonical username
+     */
+    void invalidated(String username);
+
+    /**
+     * Called when the groups cached for every user are discarded at once.
+     */
+    void invalidatedAll();
+}
@@ -0,0 +1,36 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one lookup in the plugin's caches. Its duration is the load time on a
+ * miss. Disabled by default, lookups are frequent.
+ */
+@Name("org.sonatype.nexus.plugins.crowd.CacheLookup")
+@Label("Crowd Cache Lookup")
+@Category({ "Nexus", "Crowd" })
+@Description("A lookup in a Crowd plugin cache, load from Crowd included on a miss")
+@StackTrace(false)
+@Enabled(false)
+final class CacheLookupEvent extends jdk.jfr.Event {
+    @Label("Cache")
+    String cache;
+
+    @Label("Hit")
+    boolean hit;
+}
@@ -0,0 +1,35 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Periodic flight recorder event with the number of entries of one of the plugin's caches.
+ */
+@Name("org.sonatype.nexus.plugins.crowd.CacheOccupancy")
+@Label("Crowd Cache Occupancy")
+@Category({ "Nexus", "Crowd" })
+@Description("Entries of a Crowd plugin cache")
+@StackTrace(false)
+@Period("60 s")
+final class CacheOccupancyEvent extends jdk.jfr.Event {
+    @Label("Cache")
+    String cache;
+
+    @Label("Entries")
+    long entries;
+}
@@ -0,0 +1,452 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.nexus.plugins.crowd.client.rest.TraceFormat.Op;
+import org.sonatype.nexus.plugins.crowd.client.rest.TraceFormat.Record;
+import org.sonatype.nexus.plugins.crowd.client.rest.TraceFormat.TracedCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Replays an access trace recorded with <code>accessTrace=true</code> against caches of other
+ * sizes, expiries and eviction policies, and reports for each the hit ratio and the number of
+ * requests that would have been sent to Crowd. It runs offline, from the plugin jar alone:
+ *
+ * <pre>
+ * java -cp nexus-crowd-plugin.jar org.sonatype.nexus.plugins.crowd.client.rest.CacheSimulator \
+ *     [--caches users,groups,allGroups,auths] [--policies lru,fifo,lfu,tinylfu] \
+ *     [--sizes 250,500,1000,2000,5000] [--ttls 300,900,3600] [--ttis 0,300] access-trace-....bin
+ * </pre>
+ *
+ * Sizes are entry counts, TTLs and TTIs seconds. As in the plugin's cache settings, a time to idle
+ * takes precedence over the time to live, and a time to live of 0 caches nothing. The heap tier of
+ * ehcache evicts by sampling, closest to LRU; the caffeine cache backend evicts with W-TinyLFU,
+ * simulated by Caffeine itself when it is on the class path. Failed lookups, such as unknown users
+ * or rejected passwords, are not traced: the volumes reported are those of the successful lookups.
+ */
+public final class CacheSimulator {
+    enum Policy {
+        LRU, FIFO, LFU, TINYLFU
+    }
+
+    private CacheSimulator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Set<TracedCache> caches = EnumSet.allOf(TracedCache.class);
+        Set<Policy> policies = EnumSet.of(Policy.LRU, Policy.FIFO, Policy.LFU);
+        if (CacheSimulator.class.getClassLoader().getResource("com/github/benmanes/caffeine/cache/Caffeine.class") != null) {
+            policies.add(Policy.TINYLFU);
+        }
+        long[] sizes = {250, 500, 1000, 2000, 5000};
+        long[] ttls = {300, 900, 3600};
+        long[] ttis = {0, 300};
+        String trace = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                trace = arg;
+            } else if (i + 1 == args.length) {
+                usage("missing value for " + arg);
+            } else {
+                String value = args[++i];
+                switch (arg) {
+                    case "--caches":
+                        caches = EnumSet.noneOf(TracedCache.class);
+                        for (String label : value.split(",")) {
+                            caches.add(cache(label.trim()));
+                        }
+                        break;
+                    case "--policies":
+                        policies = EnumSet.noneOf(Policy.class);
+                        for (String name : value.split(",")) {
+                            policies.add(Policy.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                        }
+                        break;
+                    case "--sizes":
+                        sizes = longs(value);
+                        break;
+                    case "--ttls":
+                        ttls = longs(value);
+                        break;
+                    case "--ttis":
+                        ttis = longs(value);
+                        break;
+                    default:
+                        usage("unknown option " + arg);
+                }
+            }
+        }
+        if (trace == null) {
+            usage("no trace given");
+        }
+
+        Map<TracedCache, Replay> replays = new EnumMap<>(TracedCache.class);
+        for (TracedCache cache : caches) {
+            replays.put(cache, new Replay(policies, sizes, ttls, ttis));
+        }
+
+        long start;
+        long end;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(trace))))) {
+            if (in.readInt() != TraceFormat.MAGIC) {
+                throw new IOException(trace + " is not an access trace");
+            }
+            start = in.readLong();
+            end = start;
+            for (Record record = TraceFormat.read(in, start); record != null; record = TraceFormat.read(in, end)) {
+                end = record.time;
+                if (record.op == Op.INVALIDATE || record.op == Op.INVALIDATE_ALL) {
+                    for (Replay replay : replays.values()) {
+                        replay.invalidate(record);
+                    }
+                } else {
+                    Replay replay = replays.get(record.cache);
+                    if (replay != null) {
+                        replay.access(record);
+                    }
+                }
+            }
+        }
+
+        double hours = Math.max(end - start, 1) / (double) TimeUnit.HOURS.toMillis(1);
+        PrintStream out = System.out;
+        out.printf(Locale.ROOT, "Trace of %.1f hours%n", hours);
+        for (Map.Entry<TracedCache, Replay> entry : replays.entrySet()) {
+            entry.getValue().report(entry.getKey(), hours, out);
+        }
+    }
+
+    private static TracedCache cache(String label) {
+        for (TracedCache cache : TracedCache.values()) {
+            if (cache.label.equalsIgnoreCase(label)) {
+                return cache;
+            }
+        }
+        usage("unknown cache " + label);
+        return null;
+    }
+
+    private static long[] longs(String value) {
+        String[] items = value.split(",");
+        long[] result = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+            result[i] = Long.parseLong(items[i].trim());
+        }
+        return result;
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("usage: CacheSimulator [--caches users,groups,allGroups,auths] [--policies lru,fifo,lfu,tinylfu]"
+                + " [--sizes n,...] [--ttls seconds,...] [--ttis seconds,...] trace");
+        System.exit(2);
+    }
+
+    /**
+     * Every simulated cache of one traced cache, fed with the same lookups.
+     */
+    private static final class Replay {
+        final List<SimulatedCache> simulated = new ArrayList<>();
+        long hits;
+        long misses;
+
+        Replay(Set<Policy> policies, long[] sizes, long[] ttls, long[] ttis) {
+            for (Policy policy : policies) {
+                for (long size : sizes) {
+                    for (long tti : ttis) {
+                        if (tti > 0) {
+                            // the time to live does not matter then
+                            simulated.add(SimulatedCache.create(policy, size, 0, tti));
+                            continue;
+                        }
+                        for (long ttl : ttls) {
+                            simulated.add(SimulatedCache.create(policy, size, ttl, 0));
+                        }
+                    }
+                }
+            }
+        }
+
+        void access(Record record) {
+            if (record.op == Op.HIT) {
+                hits++;
+            } else {
+                misses++;
+            }
+            for (SimulatedCache cache : simulated) {
+                cache.access(record.key, record.time);
+            }
+        }
+
+        void invalidate(Record record) {
+            for (SimulatedCache cache : simulated) {
+                if (record.op == Op.INVALIDATE_ALL) {
+                    cache.clear();
+                } else {
+                    cache.invalidate(record.key);
+                }
+            }
+        }
+
+        void report(TracedCache cache, double hours, PrintStream out) {
+            long lookups = hits + misses;
+            out.println();
+            out.printf(Locale.ROOT, "%s: %d lookups, recorded hit ratio %s, %d Crowd calls (%.0f per hour)%n",
+                    cache.label, lookups, ratio(hits, lookups), misses, misses / hours);
+            if (lookups == 0) {
+                return;
+            }
+            out.printf(Locale.ROOT, "%-7s %8s %8s %8s %10s %12s %10s%n",
+                    "policy", "size", "ttl", "tti", "hit ratio", "Crowd calls", "per hour");
+            for (SimulatedCache simulated : this.simulated) {
+                out.printf(Locale.ROOT, "%-7s %8d %8s %8s %10s %12d %10.0f%n",
+                        simulated.policy, simulated.capacity,
+                        simulated.tti > 0 ? "-" : String.valueOf(simulated.ttl / 1000),
+                        simulated.tti > 0 ? String.valueOf(simulated.tti / 1000) : "-",
+                        ratio(simulated.hits, lookups), simulated.misses, simulated.misses / hours);
+            }
+        }
+
+        private static String ratio(long hits, long lookups) {
+            return lookups == 0 ? "-" : String.format(Locale.ROOT, "%.1f%%", 100.0 * hits / lookups);
+        }
+    }
+
+    private static final class Entry {
+        final long key;
+        final long created;
+        long lastAccess;
+        long frequency = 1;
+        long sequence;
+
+        Entry(long key, long now) {
+            this.key = key;
+            created = now;
+            lastAccess = now;
+        }
+    }
+
+    /**
+     * A cache of <code>capacity</code> keys, where a miss stands for a request to Crowd.
+     */
+    private abstract static class SimulatedCache {
+        final Policy policy;
+        final long capacity;
+        final long ttl;
+        final long tti;
+        long hits;
+        long misses;
+
+        SimulatedCache(Policy policy, long capacity, long ttlSeconds, long ttiSeconds) {
+            this.policy = policy;
+            this.capacity = capacity;
+            ttl = TimeUnit.SECONDS.toMillis(ttlSeconds);
+            tti = TimeUnit.SECONDS.toMillis(ttiSeconds);
+        }
+
+        static SimulatedCache create(Policy policy, long capacity, long ttlSeconds, long ttiSeconds) {
+            switch (policy) {
+                case LFU:
+                    return new LfuCache(capacity, ttlSeconds, ttiSeconds);
+                case TINYLFU:
+                    return new TinyLfuCache(capacity, ttlSeconds, ttiSeconds);
+                default:
+                    return new LinkedCache(policy, capacity, ttlSeconds, ttiSeconds);
+            }
+        }
+
+        void access(long key, long now) {
+            Entry entry = get(key);
+            if (entry != null && !expired(entry, now)) {
+                hits++;
+                touch(entry, now);
+                return;
+            }
+            misses++;
+            if (entry != null) {
+                invalidate(key);
+            }
+            if (tti > 0 || ttl > 0) {
+                add(new Entry(key, now));
+            }
+        }
+
+        private boolean expired(Entry entry, long now) {
+            return tti > 0 ? now - entry.lastAccess >= tti : now - entry.created >= ttl;
+        }
+
+        abstract Entry get(long key);
+
+        abstract void touch(Entry entry, long now);
+
+        abstract void add(Entry entry);
+
+        abstract void invalidate(long key);
+
+        abstract void clear();
+    }
+
+    /**
+     * LRU or FIFO, depending on whether lookups reorder the entries.
+     */
+    private static final class LinkedCache extends SimulatedCache {
+        private final LinkedHashMap<Long, Entry> entries;
+
+        LinkedCache(Policy policy, long capacity, long ttlSeconds, long ttiSeconds) {
+            super(policy, capacity, ttlSeconds, ttiSeconds);
+            entries = new LinkedHashMap<Long, Entry>(16, 0.75f, policy == Policy.LRU) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    return size() > LinkedCache.this.capacity;
+                }
+            };
+        }
+
+        @Override
+        Entry get(long key) {
+            return entries.get(key);
+        }
+
+        @Override
+        void touch(Entry entry, long now) {
+            entry.lastAccess = now;
+        }
+
+        @Override
+        void add(Entry entry) {
+            entries.put(entry.key, entry);
+        }
+
+        @Override
+        void invalidate(long key) {
+            entries.remove(key);
+        }
+
+        @Override
+        void clear() {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Evicts the least frequently used entry, the least recently used among equals.
+     */
+    private static final class LfuCache extends SimulatedCache {
+        private final Map<Long, Entry> entries = new HashMap<>();
+        private final TreeSet<Entry> byFrequency = new TreeSet<>(Comparator.<Entry>comparingLong(entry -> entry.frequency)
+                .thenComparingLong(entry -> entry.sequence));
+        private long sequence;
+
+        LfuCache(long capacity, long ttlSeconds, long ttiSeconds) {
+            super(Policy.LFU, capacity, ttlSeconds, ttiSeconds);
+        }
+
+        @Override
+        Entry get(long key) {
+            return entries.get(key);
+        }
+
+        @Override
+        void touch(Entry entry, long now) {
+            byFrequency.remove(entry);
+            entry.lastAccess = now;
+            entry.frequency++;
+            entry.sequence = ++sequence;
+            byFrequency.add(entry);
+        }
+
+        @Override
+        void add(Entry entry) {
+            entry.sequence = ++sequence;
+            entries.put(entry.key, entry);
+            byFrequency.add(entry);
+            if (entries.size() > capacity) {
+                entries.remove(byFrequency.pollFirst().key);
+            }
+        }
+
+        @Override
+        void invalidate(long key) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                byFrequency.remove(entry);
+            }
+        }
+
+        @Override
+        void clear() {
+            entries.clear();
+            byFrequency.clear();
+        }
+    }
+
+    /**
+     * Evicts as Caffeine does, which also tracks the frequency of the keys no longer cached. Entries
+     * expire as in the other simulated caches, Caffeine only bounds their number.
+     */
+    private static final class TinyLfuCache extends SimulatedCache {
+        private final Cache<Long, Entry> entries;
+
+        TinyLfuCache(long capacity, long ttlSeconds, long ttiSeconds) {
+            super(Policy.TINYLFU, capacity, ttlSeconds, ttiSeconds);
+            entries = Caffeine.newBuilder().maximumSize(capacity).executor(Runnable::run).build();
+        }
+
+        @Override
+        Entry get(long key) {
+            return entries.getIfPresent(key);
+        }
+
+        @Override
+        void touch(Entry entry, long now) {
+            entry.lastAccess = now;
+        }
+
+        @Override
+        void add(Entry entry) {
+            entries.put(entry.key, entry);
+        }
+
+        @Override
+        void invalidate(long key) {
+            entries.invalidate(key);
+        }
+
+        @Override
+        void clear() {
+            entries.invalidateAll();
+        }
+    }
+}
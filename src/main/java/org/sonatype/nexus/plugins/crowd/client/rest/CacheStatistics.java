@@ -0,0 +1,67 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+/**
+ * Occupancy and effectiveness of one of the caches of {@link CachingRestClient}.
+ */
+public final class CacheStatistics {
+    private final String name;
+    private final long entries;
+    private final long hits;
+    private final long misses;
+    private final long estimatedBytes;
+
+    CacheStatistics(String name, long entries, long hits, long misses, long estimatedBytes) {
+        this.name = name;
+        this.entries = entries;
+        this.hits = hits;
+        this.misses = misses;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the lookups answered from the cache since Nexus started, -1 if not measured
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the lookups not answered from the cache since Nexus started, -1 if not measured
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the share of lookups answered from the cache, null if there was none or they are not measured
+     */
+    public Double getHitRatio() {
+        long lookups = hits + misses;
+        return hits < 0 || lookups == 0 ? null : (double) hits / lookups;
+    }
+
+    /**
+     * @return an estimate of the size of the entries, from the serialized size of a sample of them
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+}
@@ -10,26 +10,51 @@
  */
 package org.sonatype.nexus.plugins.crowd.client.rest;
 
-import java.net.URISyntaxException;
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.ehcache.Cache;
-import org.ehcache.CacheManager;
-import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.CacheManagerBuilder;
-import org.ehcache.config.builders.ExpiryPolicyBuilder;
-import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.client.rest.TraceFormat.TracedCache;
+import org.sonatype.nexus.plugins.crowd.config.CacheSettings;
 import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
 import org.sonatype.nexus.security.role.Role;
 import org.sonatype.nexus.security.user.User;
+import com.codahale.metrics.Meter;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import jakarta.inject.Singleton;
+import jdk.jfr.FlightRecorder;
 
 /**
  * @author Issa Gorissen
@@ -40,113 +65,991 @@ public class CachingRestClient extends RestClient {
 	private static final Logger LOG = LoggerFactory.getLogger(CachingRestClient.class);
 
 	private static final String GROUPS_CACHE_NAME = CachingRestClient.class.getName() + "#cache.groups";
+	private static final String ALL_GROUPS_CACHE_NAME = CachingRestClient.class.getName() + "#cache.allgroups";
 	private static final String USERS_CACHE_NAME = CachingRestClient.class.getName() + "#cache.users";
 	private static final String AUTH_CACHE_NAME = CachingRestClient.class.getName() + "#cache.auths";
+	private static final String NEGATIVE_CACHE_NAME = CachingRestClient.class.getName() + "#cache.negative";
+	private static final String AUTH_FAILURES_CACHE_NAME = CachingRestClient.class.getName() + "#cache.authfailures";
+	private static final String STALE_USERS_CACHE_NAME = CachingRestClient.class.getName() + "#cache.stale.users";
+	private static final String STALE_GROUPS_CACHE_NAME = CachingRestClient.class.getName() + "#cache.stale.groups";
+	private static final String STALE_ALL_GROUPS_CACHE_NAME = CachingRestClient.class.getName() + "#cache.stale.allgroups";
+	private static final int STATISTICS_SAMPLE = 100;
+	private static final int REFRESH_THREADS = 2;
+	private static final int REFRESH_QUEUE = 1000;
 	private static final String KEY_ALL_GROUPS = CachingRestClient.class.getName() + "#allgroups";
 
-	private static final int DEFAULT_CACHE_HEAP_SIZE = 1000;
-	
-	private CacheManager ehCacheManager;
-	private Cache<String, User> userCache;
-	private Cache<String, String> authCache;
+	private final CrowdPluginConfiguration config;
+	// created on first use or by the warm-up, whichever comes first; guarded by this for writes
+	private volatile CacheBackend backend;
+	private volatile boolean cachesCreated;
+	private final Map<String, PluginCache<?>> caches = new HashMap<>();
 
-	@SuppressWarnings("rawtypes")
-	private Cache<String, Set> groupsCache;
+	// caches are replaced as a whole when their settings change
+	private volatile PluginCache<User> userCache;
+	private volatile PluginCache<String> authCache;
+	private volatile PluginCache<Set<String>> groupsCache;
+	private volatile PluginCache<Set<Role>> allGroupsCache;
+	private volatile PluginCache<Boolean> negativeCache;
+	private volatile PluginCache<Integer> authFailuresCache;
+	private volatile int authFailureLimit;
+
+	// last known values with their write time, used when a request to Crowd is shed; null when disabled
+	private volatile PluginCache<Stale<User>> staleUserCache;
+	private volatile PluginCache<Stale<Set<String>>> staleGroupsCache;
+	private volatile PluginCache<Stale<Set<Role>>> staleAllGroupsCache;
+	private volatile long staleMaxAgeMillis;
+	private final Meter staleHits;
+
+	private final List<CacheInvalidationListener> invalidationListeners = new CopyOnWriteArrayList<>();
+	// bumped by every invalidation, a value loaded across one is not cached
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private final SingleFlight<Set<String>> groupsLoads = new SingleFlight<>();
+	private final SingleFlight<User> userLoads = new SingleFlight<>();
+	private final SingleFlight<Set<Role>> allGroupsLoads = new SingleFlight<>();
+
+	private final CrowdMetrics.CacheMetrics userMetrics;
+	private final CrowdMetrics.CacheMetrics groupsMetrics;
+	private final CrowdMetrics.CacheMetrics allGroupsMetrics;
+	private final CrowdMetrics.CacheMetrics authMetrics;
+
+	// keys of the negative and failure caches are keyed hashes, so that the content of
+	// these caches cannot be used to tell which usernames exist or have been tried
+	private final HmacUtils keyHasher;
+
+	// fetches the groups and details of a user while the user is being authenticated
+	private final ThreadPoolExecutor prefetchExecutor;
+	private volatile boolean prefetchGroups;
+	private volatile boolean prefetchUser;
+	private volatile int prefetchWait;
+
+	// usernames looked up most often, preloaded by the warm-up after a restart
+	private final HotPrincipals hotPrincipals;
+
+	// records the lookups for the offline cache simulator, when enabled
+	private final AccessTrace accessTrace;
+
+	// invalidations made here are propagated to the other Nexus nodes, and theirs applied here
+	private final InvalidationBus invalidationBus;
+
+	// runs the warm-ups and reloads requested by administrators, one at a time
+	private final ThreadPoolExecutor adminExecutor;
+
+	// reloads the entries the cache backend refreshes ahead of their expiry
+	private final ThreadPoolExecutor refreshExecutor;
+
+	private final Runnable cacheOccupancy = this::emitCacheOccupancy;
+	private final MappedGroups mappedGroups;
+	private final Runnable mappedGroupsListener = this::mappedGroupsChanged;
 
 	@Inject
-	public CachingRestClient(CrowdPluginConfiguration config) throws URISyntaxException {
-		super(config);
+	public CachingRestClient(CrowdPluginConfiguration config, CrowdMetrics metrics, MappedGroups mappedGroups) {
+		super(config, metrics, mappedGroups);
+		this.config = config;
+		this.mappedGroups = mappedGroups;
+
+		userMetrics = metrics.cache("users");
+		groupsMetrics = metrics.cache("groups");
+		allGroupsMetrics = metrics.cache("allGroups");
+		authMetrics = metrics.cache("auths");
+		staleHits = metrics.getRegistry().meter(CrowdMetrics.PREFIX + "cache.staleHits");
+
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		keyHasher = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, secret);
+
+		// no queue: when every thread is busy the login simply goes without prefetch
+		prefetchExecutor = new ThreadPoolExecutor(0, config.getInteractivePoolSettings().getMaxConnections(),
+				60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "crowd-plugin-login-prefetch");
+					thread.setDaemon(true);
+					return thread;
+				});
+		applyPrefetchSettings(config);
 
-		ehCacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
-		ehCacheManager.init();
-		groupsCache = ehCacheManager.createCache(GROUPS_CACHE_NAME, createCacheConfig(String.class, Set.class, config));
-		userCache = ehCacheManager.createCache(USERS_CACHE_NAME, createCacheConfig(String.class, User.class, config));
+		Path dataDirectory = dataDirectory();
+		hotPrincipals = new HotPrincipals(dataDirectory == null ? null : dataDirectory.resolve("hot-principals"), config);
+		accessTrace = new AccessTrace(dataDirectory, config);
+		adminExecutor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "crowd-plugin-cache-admin");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refreshExecutor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(REFRESH_QUEUE), runnable -> {
+					Thread thread = new Thread(runnable, "crowd-plugin-cache-refresh");
+					thread.setDaemon(true);
+					return thread;
+				});
+		refreshExecutor.allowCoreThreadTimeOut(true);
+		invalidationBus = new InvalidationBus(config, metrics, invalidation -> invalidateLocally(invalidation.getUsername()));
 
-		// for auth cache, we use idle time instead of live time
-		authCache = ehCacheManager.createCache(AUTH_CACHE_NAME,
-				CacheConfigurationBuilder
-						.newCacheConfigurationBuilder(String.class, String.class, ResourcePoolsBuilder.heap(DEFAULT_CACHE_HEAP_SIZE))
-						.withExpiry(ExpiryPolicyBuilder.timeToIdleExpiration(Duration.of(5, ChronoUnit.MINUTES))).build());
+		FlightRecorder.addPeriodicEvent(CacheOccupancyEvent.class, cacheOccupancy);
 	}
 
 	@Override
-	protected void finalize() throws Throwable {
-		ehCacheManager.close();
-		super.finalize();
+	public void close() {
+		FlightRecorder.removePeriodicEvent(cacheOccupancy);
+		mappedGroups.removeListener(mappedGroupsListener);
+		prefetchExecutor.shutdownNow();
+		adminExecutor.shutdownNow();
+		refreshExecutor.shutdownNow();
+		hotPrincipals.close();
+		accessTrace.close();
+		invalidationBus.close();
+		super.close();
+		synchronized (this) {
+			if (backend != null) {
+				backend.close();
+			}
+		}
 	}
 
 	@Override
-	public Set<String> getNestedGroups(String username) throws RestException {
-		@SuppressWarnings("unchecked")
-		Set<String> elem = groupsCache.get(username);
-		if (elem != null) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("getNestedGroups({}) from cache", username);
+	protected void preload() throws RestException {
+		ensureCaches();
+		getAllGroups();
+		preloadHotPrincipals();
+	}
+
+	/**
+	 * Loads the details and groups of the users looked up most often before the restart.
+	 */
+	private void preloadHotPrincipals() {
+		List<String> usernames = hotPrincipals.load();
+		if (!usernames.isEmpty()) {
+			int loaded = preload(usernames, "crowd-plugin-hot-principals-warmup");
+			LOG.info("Preloaded {} of {} frequent Crowd users", loaded, usernames.size());
+		}
+	}
+
+	/**
+	 * Loads the details and groups of <code>usernames</code> as background requests. Users are
+	 * started at a bounded rate, and a bounded number of them is loaded at a time.
+	 *
+	 * @return the number of users loaded
+	 */
+	private int preload(Collection<String> usernames, String threadName) {
+		int concurrency = config.getHotPrincipalsWarmUpConcurrency();
+		long interval = TimeUnit.SECONDS.toNanos(1) / config.getHotPrincipalsWarmUpRate();
+		Semaphore slots = new Semaphore(concurrency);
+		AtomicInteger loaded = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, threadName);
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			long next = System.nanoTime();
+			for (String username : usernames) {
+				long wait = next - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				next = Math.max(next, System.nanoTime()) + interval;
+				slots.acquire();
+				executor.execute(() -> {
+					try {
+						RequestClass.BACKGROUND.run(() -> {
+							getUser(username);
+							return getNestedGroups(username);
+						});
+						loaded.incrementAndGet();
+					} catch (RestException | RuntimeException e) {
+						LOG.debug("unable to preload user {}: {}", username, e.toString());
+					} finally {
+						slots.release();
+					}
+				});
+			}
+			slots.acquire(concurrency);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		return loaded.get();
+	}
+
+	/**
+	 * Loads the details and groups of <code>usernames</code> in the background, at the pace of the
+	 * warm-up. Requests made meanwhile are served as usual.
+	 *
+	 * @param usernames
+	 * @return the number of users loaded, once done
+	 */
+	public CompletableFuture<Integer> preloadUsers(Collection<String> usernames) {
+		List<String> canonical = new ArrayList<>(usernames.size());
+		for (String username : usernames) {
+			canonical.add(canonicalUsername(username));
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			ensureCaches();
+			int loaded = preload(canonical, "crowd-plugin-cache-admin-warmup");
+			LOG.info("Preloaded {} of {} Crowd users on request", loaded, canonical.size());
+			return loaded;
+		}, adminExecutor);
+	}
+
+	/**
+	 * Loads the catalog of all groups again in the background, replacing the cached one once
+	 * loaded; until then, requests are served from the cached one.
+	 *
+	 * @return completed once the catalog is replaced
+	 */
+	public CompletableFuture<Void> reloadAllGroups() {
+		return CompletableFuture.runAsync(() -> {
+			ensureCaches();
+			try {
+				long generation = invalidations.get();
+				Set<Role> groups = RequestClass.BACKGROUND.run(() -> Collections.unmodifiableSet(super.getAllGroups()));
+				store(generation, allGroupsCache, staleAllGroupsCache, KEY_ALL_GROUPS, groups);
+			} catch (RestException re) {
+				throw new CompletionException(re);
+			}
+		}, adminExecutor);
+	}
+
+	/**
+	 * Counts the entries of every cache, which walks through them all.
+	 *
+	 * @return the statistics of the caches, empty before they are first used
+	 */
+	public List<CacheStatistics> cacheStatistics() {
+		if (!cachesCreated) {
+			return Collections.emptyList();
+		}
+		UserSerializer users = new UserSerializer();
+		StringSetSerializer stringSets = new StringSetSerializer();
+		RoleSetSerializer roleSets = new RoleSetSerializer();
+		return List.of(
+				statistics("users", userCache, userMetrics, value -> users.encode(value).remaining()),
+				statistics("groups", groupsCache, groupsMetrics, value -> stringSets.encode(value).remaining()),
+				statistics("allGroups", allGroupsCache, allGroupsMetrics, value -> roleSets.encode(value).remaining()),
+				statistics("auths", authCache, authMetrics, value -> 2 * value.length()),
+				statistics("negative", negativeCache, null, value -> 1),
+				statistics("authFailures", authFailuresCache, null, value -> 4),
+				statistics("staleUsers", staleUserCache, null, stale -> 8 + users.encode(stale.value).remaining()),
+				statistics("staleGroups", staleGroupsCache, null, stale -> 8 + stringSets.encode(stale.value).remaining()),
+				statistics("staleAllGroups", staleAllGroupsCache, null, stale -> 8 + roleSets.encode(stale.value).remaining()));
+	}
+
+	// the size is extrapolated from the serialized size of the first entries
+	private static <V> CacheStatistics statistics(String name, PluginCache<V> cache, CrowdMetrics.CacheMetrics metrics,
+			ToIntFunction<V> valueSize) {
+		long entries = 0;
+		long sampledBytes = 0;
+		if (cache != null) {
+			for (Map.Entry<String, V> entry : cache) {
+				if (entries++ < STATISTICS_SAMPLE) {
+					sampledBytes += 2L * entry.getKey().length() + valueSize.applyAsInt(entry.getValue());
+				}
 			}
-			return elem;
 		}
+		long estimatedBytes = entries == 0 ? 0 : sampledBytes * entries / Math.min(entries, STATISTICS_SAMPLE);
+		return metrics == null
+				? new CacheStatistics(name, entries, -1, -1, estimatedBytes)
+				: new CacheStatistics(name, entries, metrics.getHits(), metrics.getMisses(), estimatedBytes);
+	}
+
+	private static Path dataDirectory() {
+		String karafData = System.getProperty("karaf.data");
+		return StringUtils.isEmpty(karafData) ? null : Paths.get(karafData, "crowd-plugin");
+	}
+
+	private void ensureCaches() {
+		if (!cachesCreated) {
+			createCaches();
+		}
+	}
 
-		Set<String> groups = super.getNestedGroups(username);
-		groupsCache.put(username, groups);
-		return groups;
+	private synchronized void createCaches() {
+		if (!cachesCreated) {
+			createCaches(config.getSnapshot(), null);
+			cachesCreated = true;
+		}
+	}
+
+	// caches do not all keep a count, the entries are only counted while the event is recorded
+	private void emitCacheOccupancy() {
+		emitCacheOccupancy("users", userCache);
+		emitCacheOccupancy("groups", groupsCache);
+		emitCacheOccupancy("allGroups", allGroupsCache);
+		emitCacheOccupancy("auths", authCache);
+		emitCacheOccupancy("negative", negativeCache);
+		emitCacheOccupancy("authFailures", authFailuresCache);
+		emitCacheOccupancy("staleUsers", staleUserCache);
+		emitCacheOccupancy("staleGroups", staleGroupsCache);
+		emitCacheOccupancy("staleAllGroups", staleAllGroupsCache);
+	}
+
+	private static void emitCacheOccupancy(String name, PluginCache<?> cache) {
+		if (cache == null) {
+			return;
+		}
+		long entries = 0;
+		for (Map.Entry<String, ?> entry : cache) {
+			entries++;
+		}
+		CacheOccupancyEvent event = new CacheOccupancyEvent();
+		event.cache = name;
+		event.entries = entries;
+		event.commit();
 	}
 
 	@Override
-	public User getUser(String username) throws RestException {
-		if (username.equals("null")) {
-			// NX is using username null as guest access or something...
-			throw new RestException("user null does not exist in Crowd");
+	protected void reconfigure(CrowdPluginConfiguration previous, CrowdPluginConfiguration current) {
+		super.reconfigure(previous, current);
+		synchronized (this) {
+			// otherwise created on first use, from the configuration then in effect
+			if (cachesCreated) {
+				createCaches(current, previous);
+			}
 		}
-		
-		User elem = userCache.get(username);
-		if (elem != null) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("getUser({}) from cache", username);
+		prefetchExecutor.setMaximumPoolSize(current.getInteractivePoolSettings().getMaxConnections());
+		applyPrefetchSettings(current);
+		hotPrincipals.configure(current);
+		accessTrace.configure(current);
+		invalidationBus.configure(current);
+	}
+
+	@Override
+	public void addCacheInvalidationListener(CacheInvalidationListener listener) {
+		invalidationListeners.add(listener);
+	}
+
+	@Override
+	public long invalidationGeneration() {
+		return invalidations.get();
+	}
+
+	@Override
+	public void invalidate(String rawUsername) {
+		String username = canonicalUsername(rawUsername);
+		invalidateLocally(username);
+		invalidationBus.publish(username);
+	}
+
+	@Override
+	public void invalidateAll() {
+		invalidateLocally(null);
+		invalidationBus.publish(null);
+	}
+
+	/**
+	 * Drops what is cached about <code>username</code>, or everything when null. Failed
+	 * authentication attempts are still counted.
+	 */
+	private void invalidateLocally(String username) {
+		invalidations.incrementAndGet();
+		accessTrace.invalidated(username);
+		// what listeners derived may outlive the entries it came from, or predate the caches
+		for (CacheInvalidationListener listener : invalidationListeners) {
+			if (username == null) {
+				listener.invalidatedAll();
+			} else {
+				listener.invalidated(username);
+			}
+		}
+		if (!cachesCreated) {
+			return;
+		}
+		if (username == null) {
+			userCache.clear();
+			groupsCache.clear();
+			allGroupsCache.clear();
+			authCache.clear();
+			negativeCache.clear();
+			clear(staleUserCache);
+			clear(staleGroupsCache);
+			clear(staleAllGroupsCache);
+			LOG.info("Crowd caches cleared");
+		} else {
+			userCache.remove(username);
+			groupsCache.remove(username);
+			authCache.remove(username);
+			negativeCache.remove(negativeKey("user", username));
+			negativeCache.remove(negativeKey("groups", username));
+			remove(staleUserCache, username);
+			remove(staleGroupsCache, username);
+			LOG.info("Crowd caches invalidated for user {}", username);
+		}
+	}
+
+	private static void clear(PluginCache<?> cache) {
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	private static void remove(PluginCache<?> cache, String key) {
+		if (cache != null) {
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * Drops the nested groups cached on this node, restricted to mapped groups that changed since.
+	 * The other nodes notice the change on their own.
+	 */
+	private void mappedGroupsChanged() {
+		if (!cachesCreated) {
+			return;
+		}
+		invalidations.incrementAndGet();
+		for (CacheInvalidationListener listener : invalidationListeners) {
+			listener.invalidatedAll();
+		}
+		groupsCache.clear();
+		clear(staleGroupsCache);
+		LOG.info("Crowd groups cache cleared, the groups mapped to Nexus roles changed");
+	}
+
+	private void groupsDiscarded(String username) {
+		for (CacheInvalidationListener listener : invalidationListeners) {
+			listener.invalidated(username);
+		}
+	}
+
+	private void applyPrefetchSettings(CrowdPluginConfiguration config) {
+		prefetchGroups = config.isLoginPrefetchGroups();
+		prefetchUser = config.isLoginPrefetchUser();
+		prefetchWait = config.getHttpTimeout();
+	}
+
+	/**
+	 * Creates the caches whose settings differ between <code>previous</code> and <code>config</code>,
+	 * or all of them when there is no previous configuration, the cached entries no longer apply or
+	 * the cache backend changed.
+	 */
+	private synchronized void createCaches(CrowdPluginConfiguration config, CrowdPluginConfiguration previous) {
+		CacheBackend retiredBackend = null;
+		if (previous == null || !config.getCacheBackend().equals(previous.getCacheBackend())
+				|| config.getCacheRefreshAhead() != previous.getCacheRefreshAhead()) {
+			retiredBackend = backend;
+			backend = createBackend(config);
+			caches.clear();
+		}
+		boolean all = previous == null || retiredBackend != null || !sharesEntries(previous, config);
+		boolean groupsChanged = all || !GroupProjection.isUnchanged(previous, config);
+		// cached groups depend on the mapped ones only when restricted to them
+		if (config.isGroupMappedOnly()) {
+			mappedGroups.addListener(mappedGroupsListener);
+		} else {
+			mappedGroups.removeListener(mappedGroupsListener);
+		}
+		List<PluginCache<?>> retired = new ArrayList<>();
+
+		if (groupsChanged || !config.getGroupsCacheSettings().equals(previous.getGroupsCacheSettings())) {
+			groupsCache = replaceCache(GROUPS_CACHE_NAME, retired, backend.create(GROUPS_CACHE_NAME, stringSetClass(),
+					config.getGroupsCacheSettings(), new StringSetSerializer(), this::groupsDiscarded,
+					username -> reload("groups refresh", () -> {
+						Set<String> groups = Collections.unmodifiableSet(super.getNestedGroups(username));
+						remember(staleGroupsCache, username, groups);
+						return groups;
+					})));
+			for (CacheInvalidationListener listener : invalidationListeners) {
+				listener.invalidatedAll();
+			}
+		}
+		if (groupsChanged || !config.getAllGroupsCacheSettings().equals(previous.getAllGroupsCacheSettings())) {
+			allGroupsCache = replaceCache(ALL_GROUPS_CACHE_NAME, retired, backend.create(ALL_GROUPS_CACHE_NAME, roleSetClass(),
+					config.getAllGroupsCacheSettings(), new RoleSetSerializer(), null,
+					key -> reload("allGroups refresh", () -> {
+						Set<Role> groups = Collections.unmodifiableSet(super.getAllGroups());
+						remember(staleAllGroupsCache, key, groups);
+						return groups;
+					})));
+		}
+		if (all || !config.getUserCacheSettings().equals(previous.getUserCacheSettings())) {
+			userCache = replaceCache(USERS_CACHE_NAME, retired, backend.create(USERS_CACHE_NAME, User.class,
+					config.getUserCacheSettings(), new UserSerializer(), null,
+					username -> reload("users refresh", () -> {
+						User user = super.getUser(username);
+						remember(staleUserCache, username, user);
+						return user;
+					})));
+		}
+		// password hashes cannot be reloaded, they expire
+		if (all || !config.getAuthCacheSettings().equals(previous.getAuthCacheSettings())) {
+			authCache = replaceCache(AUTH_CACHE_NAME, retired,
+					backend.create(AUTH_CACHE_NAME, String.class, config.getAuthCacheSettings(), null, null, null));
+		}
+		if (all || !negativeCacheSettings(config).equals(negativeCacheSettings(previous))) {
+			negativeCache = replaceCache(NEGATIVE_CACHE_NAME, retired,
+					backend.create(NEGATIVE_CACHE_NAME, Boolean.class, negativeCacheSettings(config), null, null, null));
+		}
+
+		// the window slides, every failure keeps the count for another authFailureWindow
+		authFailureLimit = config.getAuthFailureLimit();
+		if (all || !authFailuresCacheSettings(config).equals(authFailuresCacheSettings(previous))) {
+			authFailuresCache = replaceCache(AUTH_FAILURES_CACHE_NAME, retired,
+					backend.create(AUTH_FAILURES_CACHE_NAME, Integer.class, authFailuresCacheSettings(config), null, null, null));
+		}
+
+		// the age is checked on use, so a lowered maximum applies to the values already kept
+		staleMaxAgeMillis = TimeUnit.SECONDS.toMillis(config.getStaleMaxAge());
+		if (groupsChanged || config.getStaleCacheSize() != previous.getStaleCacheSize()) {
+			int size = config.getStaleCacheSize();
+			staleUserCache = replaceCache(STALE_USERS_CACHE_NAME, retired,
+					size == 0 ? null : backend.create(STALE_USERS_CACHE_NAME, staleClass(), CacheSettings.eternal(size), null, null, null));
+			staleGroupsCache = replaceCache(STALE_GROUPS_CACHE_NAME, retired,
+					size == 0 ? null : backend.create(STALE_GROUPS_CACHE_NAME, staleClass(), CacheSettings.eternal(size), null, null, null));
+			staleAllGroupsCache = replaceCache(STALE_ALL_GROUPS_CACHE_NAME, retired,
+					size == 0 ? null : backend.create(STALE_ALL_GROUPS_CACHE_NAME, staleClass(), CacheSettings.eternal(1), null, null, null));
+		}
+
+		// the replacements are in use by now, so lookups never run into a closed cache
+		for (PluginCache<?> cache : retired) {
+			backend.destroy(cache);
+		}
+		if (retiredBackend != null) {
+			retiredBackend.close();
+			LOG.info("Crowd caches now kept by the '{}' cache backend", config.getCacheBackend());
+		} else if (previous != null && !retired.isEmpty()) {
+			LOG.info("{} cache(s) rebuilt after a configuration change", retired.size());
+		}
+	}
+
+	/**
+	 * @param cache the new cache, null to only retire the previous one
+	 * @return <code>cache</code>
+	 */
+	private <V> PluginCache<V> replaceCache(String name, List<PluginCache<?>> retired, PluginCache<V> cache) {
+		PluginCache<?> previous = cache == null ? caches.remove(name) : caches.put(name, cache);
+		if (previous != null) {
+			retired.add(previous);
+		}
+		return cache;
+	}
+
+	/**
+	 * @return the backend named by the configuration, ehcache if it cannot be created
+	 */
+	private static CacheBackend createBackend(CrowdPluginConfiguration config) {
+		try {
+			switch (config.getCacheBackend()) {
+				case "ehcache":
+					return new EhcacheBackend(config);
+
+				case "caffeine":
+					return new CaffeineBackend(config);
+
+				default:
+					return Class.forName(config.getCacheBackend())
+							.asSubclass(CacheBackend.class)
+							.getConstructor(CrowdPluginConfiguration.class)
+							.newInstance(config);
 			}
-			return elem;
+		} catch (Exception | LinkageError e) {
+			LOG.error("Unable to create the cache backend '{}', using ehcache", config.getCacheBackend(), e);
+			return new EhcacheBackend(config);
 		}
+	}
 
-		User user = super.getUser(username);
-		userCache.put(username, user);
-		return user;
+	/**
+	 * Reloads an entry the cache backend refreshes, in the background.
+	 */
+	private <V> CompletableFuture<V> reload(String cacheState, RequestClass.RestCall<V> call) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return RequestClass.BACKGROUND.run(() -> CallTiming.withCacheState(cacheState, call));
+			} catch (RestException re) {
+				throw new CompletionException(re);
+			}
+		}, refreshExecutor);
+	}
+
+	/**
+	 * @return true if entries cached under <code>previous</code> are still valid under <code>current</code>
+	 */
+	private static boolean sharesEntries(CrowdPluginConfiguration previous, CrowdPluginConfiguration current) {
+		return Objects.equals(previous.getCrowdServerUrl(), current.getCrowdServerUrl())
+				&& Objects.equals(previous.getApplicationName(), current.getApplicationName())
+				&& previous.isUsernameCaseSensitive() == current.isUsernameCaseSensitive()
+				&& previous.isUsernameTrimmed() == current.isUsernameTrimmed();
+	}
+
+	private static CacheSettings negativeCacheSettings(CrowdPluginConfiguration config) {
+		return new CacheSettings(config.getNegativeCacheSize(), 0, 0, config.getNegativeCacheTTL(), 0);
+	}
+
+	private static CacheSettings authFailuresCacheSettings(CrowdPluginConfiguration config) {
+		return new CacheSettings(config.getNegativeCacheSize(), 0, 0, config.getAuthFailureWindow(), 0);
 	}
 
 	@Override
-	public Set<Role> getAllGroups() throws RestException {
-		@SuppressWarnings("unchecked")
-		Set<Role> elem = groupsCache.get(KEY_ALL_GROUPS);
-		if (elem != null) {
-			LOG.debug("getAllGroups from cache");
-			return elem;
+	public Set<String> getNestedGroups(String rawUsername) throws RestException {
+		CacheLookupEvent lookup = new CacheLookupEvent();
+		lookup.begin();
+		try {
+			ensureCaches();
+			String username = canonicalUsername(rawUsername);
+			Set<String> elem = groupsCache.get(username);
+			if (elem != null) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("getNestedGroups({}) from cache", username);
+				}
+				groupsMetrics.hit();
+				lookup.hit = true;
+				accessTrace.hit(TracedCache.GROUPS, username);
+				hotPrincipals.record(username);
+				return elem;
+			}
+			groupsMetrics.miss();
+
+			String negativeKey = negativeKey("groups", username);
+			checkNegativeCache(negativeKey, username);
+
+			Set<String> groups;
+			try {
+				groups = groupsLoads.load(username, () -> {
+					long generation = invalidations.get();
+					Set<String> loaded = Collections.unmodifiableSet(
+							CallTiming.withCacheState("groups miss", () -> super.getNestedGroups(username)));
+					store(generation, groupsCache, staleGroupsCache, username, loaded);
+					return loaded;
+				});
+			} catch (RequestRejectedException rre) {
+				return lastKnown(staleGroupsCache, username, rre);
+			} catch (RestException re) {
+				rememberNotFound(negativeKey, re);
+				throw re;
+			}
+			accessTrace.miss(TracedCache.GROUPS, username);
+			hotPrincipals.record(username);
+			return groups;
+		} finally {
+			commit(lookup, "groups");
 		}
+	}
+
+	@Override
+	public User getUser(String rawUsername) throws RestException {
+		CacheLookupEvent lookup = new CacheLookupEvent();
+		lookup.begin();
+		try {
+			ensureCaches();
+			String username = canonicalUsername(rawUsername);
+			if (username.equals("null")) {
+				// NX is using username null as guest access or something...
+				throw new RestException("user null does not exist in Crowd");
+			}
+		
+			User elem = userCache.get(username);
+			if (elem != null) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("getUser({}) from cache", username);
+				}
+				userMetrics.hit();
+				lookup.hit = true;
+				accessTrace.hit(TracedCache.USERS, username);
+				hotPrincipals.record(username);
+				return elem;
+			}
+			userMetrics.miss();
+
+			String negativeKey = negativeKey("user", username);
+			checkNegativeCache(negativeKey, username);
+
+			User user;
+			try {
+				user = userLoads.load(username, () -> {
+					long generation = invalidations.get();
+					User loaded = CallTiming.withCacheState("users miss", () -> super.getUser(username));
+					store(generation, userCache, staleUserCache, username, loaded);
+					return loaded;
+				});
+			} catch (RequestRejectedException rre) {
+				return lastKnown(staleUserCache, username, rre);
+			} catch (RestException re) {
+				rememberNotFound(negativeKey, re);
+				throw re;
+			}
+			accessTrace.miss(TracedCache.USERS, username);
+			hotPrincipals.record(username);
+			return user;
+		} finally {
+			commit(lookup, "users");
+		}
+	}
+
+	@Override
+	public Set<Role> getAllGroups() throws RestException {
+		CacheLookupEvent lookup = new CacheLookupEvent();
+		lookup.begin();
+		try {
+			ensureCaches();
+			Set<Role> elem = allGroupsCache.get(KEY_ALL_GROUPS);
+			if (elem != null) {
+				LOG.debug("getAllGroups from cache");
+				allGroupsMetrics.hit();
+				lookup.hit = true;
+				accessTrace.hit(TracedCache.ALL_GROUPS, KEY_ALL_GROUPS);
+				return elem;
+			}
+			allGroupsMetrics.miss();
 
-		Set<Role> groups = super.getAllGroups();
-		groupsCache.put(KEY_ALL_GROUPS, groups);
-		return groups;
+			Set<Role> groups;
+			try {
+				groups = allGroupsLoads.load(KEY_ALL_GROUPS, () -> {
+					long generation = invalidations.get();
+					Set<Role> loaded = Collections.unmodifiableSet(
+							CallTiming.withCacheState("allGroups miss", () -> super.getAllGroups()));
+					store(generation, allGroupsCache, staleAllGroupsCache, KEY_ALL_GROUPS, loaded);
+					return loaded;
+				});
+			} catch (RequestRejectedException rre) {
+				return lastKnown(staleAllGroupsCache, KEY_ALL_GROUPS, rre);
+			}
+			accessTrace.miss(TracedCache.ALL_GROUPS, KEY_ALL_GROUPS);
+			return groups;
+		} finally {
+			commit(lookup, "allGroups");
+		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void authenticate(String username, String password) throws RestException {
-		String cachedPasswordHash = authCache.get(username);
-		String passwordHash = DigestUtils.sha512Hex(password);
-		if (passwordHash.equals(cachedPasswordHash)) {
+	public void authenticate(String rawUsername, String password) throws RestException {
+		CacheLookupEvent lookup = new CacheLookupEvent();
+		lookup.begin();
+		try {
+			ensureCaches();
+			String username = canonicalUsername(rawUsername);
+			String cachedPasswordHash = authCache.get(username);
+			String passwordHash = DigestUtils.sha512Hex(password);
+			if (passwordHash.equals(cachedPasswordHash)) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("user {} password compared with cached hash successfully", username);
+				}
+				authMetrics.hit();
+				lookup.hit = true;
+				accessTrace.hit(TracedCache.AUTHS, username);
+				return;
+			}
+			authMetrics.miss();
+
+			String failuresKey = negativeKey("auth", username);
+			Integer failures = authFailuresCache.get(failuresKey);
+			if (authFailureLimit > 0 && failures != null && failures >= authFailureLimit) {
+				LOG.debug("too many failed authentication attempts, not sending request to Crowd");
+				throw new RestException("too many failed authentication attempts");
+			}
+
+			// the permissions of the user are checked right after a login, fetch what they need meanwhile;
+			// nothing fetched is cached unless the authentication succeeds
+			long generation = invalidations.get();
+			CompletableFuture<Set<String>> groups = null;
+			if (prefetchGroups && !groupsCache.containsKey(username) && !negativeCache.containsKey(negativeKey("groups", username))) {
+				groups = prefetch("groups prefetch", () -> Collections.unmodifiableSet(super.getNestedGroups(username)));
+			}
+			CompletableFuture<User> user = null;
+			if (prefetchUser && !userCache.containsKey(username) && !negativeCache.containsKey(negativeKey("user", username))) {
+				user = prefetch("users prefetch", () -> super.getUser(username));
+			}
+
+			try {
+				CallTiming.withCacheState("auths miss", () -> {
+					super.authenticate(username, password);
+					return null;
+				});
+			} catch (RestException re) {
+				// only a rejection of the credentials counts, not Crowd being unreachable
+				if (re.getStatusCode() == 400 && authFailureLimit > 0) {
+					recordAuthFailure(failuresKey);
+				}
+				discard(groups);
+				discard(user);
+				throw re;
+			}
+			authFailuresCache.remove(failuresKey);
+			if (invalidations.get() == generation) {
+				authCache.put(username, passwordHash);
+			}
+			accessTrace.miss(TracedCache.AUTHS, username);
+
+			long deadline = System.currentTimeMillis() + prefetchWait;
+			storePrefetched(groups, deadline, username, value -> {
+				store(generation, groupsCache, staleGroupsCache, username, value);
+				accessTrace.miss(TracedCache.GROUPS, username);
+			});
+			storePrefetched(user, deadline, username, value -> {
+				store(generation, userCache, staleUserCache, username, value);
+				accessTrace.miss(TracedCache.USERS, username);
+			});
+		} finally {
+			commit(lookup, "auths");
+		}
+	}
+
+	/**
+	 * Starts <code>call</code> on the prefetch executor with the priority and the deadline of the
+	 * calling thread.
+	 * 
+	 * @return the pending result, or null if no prefetch thread is available
+	 */
+	private <V> CompletableFuture<V> prefetch(String cacheState, RequestClass.RestCall<V> call) {
+		RequestClass requestClass = RequestClass.effective(RequestClass.INTERACTIVE);
+		Deadline deadline = Deadline.current();
+		try {
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					RequestClass.RestCall<V> described = () -> CallTiming.withCacheState(cacheState, call);
+					return deadline == null ? requestClass.run(described) : deadline.run(() -> requestClass.run(described));
+				} catch (RestException re) {
+					throw new CompletionException(re);
+				}
+			}, prefetchExecutor);
+		} catch (RejectedExecutionException ree) {
+			LOG.debug("no thread available to prefetch during login");
+			return null;
+		}
+	}
+
+	private static void discard(CompletableFuture<?> prefetched) {
+		if (prefetched != null) {
+			prefetched.cancel(false);
+		}
+	}
+
+	/**
+	 * Hands the prefetched value to <code>store</code>, waiting for it until <code>deadline</code>.
+	 * A value arriving later is stored when it arrives; a failed prefetch is ignored, the value will
+	 * be fetched again when needed.
+	 */
+	private static <V> void storePrefetched(CompletableFuture<V> prefetched, long deadline, String username, Consumer<V> store) {
+		if (prefetched == null) {
+			return;
+		}
+		prefetched.thenAccept(store);
+		try {
+			prefetched.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException | TimeoutException e) {
 			if (LOG.isDebugEnabled()) {
-				LOG.debug("user {} password compared with cached hash successfully", username);
+				LOG.debug("prefetch for {} not available after login: {}", username, e.getMessage());
 			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Records a cache lookup, including the load from Crowd on a miss, if the flight recorder wants it.
+	 */
+	private static void commit(CacheLookupEvent lookup, String cache) {
+		lookup.end();
+		if (lookup.shouldCommit()) {
+			lookup.cache = cache;
+			lookup.commit();
+		}
+	}
+
+	/**
+	 * Caches a value loaded from Crowd, unless the caches were invalidated since the load started:
+	 * the value may then predate the change that caused the invalidation.
+	 */
+	private <V> void store(long generation, PluginCache<V> cache, PluginCache<Stale<V>> staleCache, String key, V value) {
+		if (invalidations.get() != generation) {
+			LOG.debug("not caching {}, invalidated while loading", key);
 			return;
 		}
+		cache.put(key, value);
+		remember(staleCache, key, value);
+		// an invalidation is counted before it removes entries, one that ran between
+		// the check and the puts is seen here
+		if (invalidations.get() != generation) {
+			cache.remove(key);
+			remove(staleCache, key);
+		}
+	}
 
-		super.authenticate(username, password);
-		authCache.put(username, passwordHash);
+	private static <V> void remember(PluginCache<Stale<V>> staleCache, String key, V value) {
+		if (staleCache != null) {
+			staleCache.put(key, new Stale<>(value));
+		}
 	}
 
-	private static <K, V> CacheConfigurationBuilder<K, V> createCacheConfig(Class<K> keyClass, Class<V> valueClass,
-			CrowdPluginConfiguration config) {
-		return CacheConfigurationBuilder
-				.newCacheConfigurationBuilder(keyClass, valueClass, ResourcePoolsBuilder.heap(DEFAULT_CACHE_HEAP_SIZE))
-				.withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.of(config.getCacheTTL(), ChronoUnit.SECONDS)));
+	/**
+	 * @return the last value known for <code>key</code>, if it is not older than the maximum age
+	 * @throws RequestRejectedException <code>rre</code> if there is no such value
+	 */
+	private <V> V lastKnown(PluginCache<Stale<V>> staleCache, String key, RequestRejectedException rre) throws RequestRejectedException {
+		Stale<V> stale = staleCache == null ? null : staleCache.get(key);
+		if (stale == null) {
+			throw rre;
+		}
+		long age = System.currentTimeMillis() - stale.writtenAt;
+		if (age > staleMaxAgeMillis) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("{}, the last known value is {} s old, too old to answer with", rre.getMessage(),
+						TimeUnit.MILLISECONDS.toSeconds(age));
+			}
+			staleCache.remove(key);
+			throw rre;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("{}, answering with the last known value", rre.getMessage());
+		}
+		staleHits.mark();
+		LastKnown.served();
+		return stale.value;
+	}
+
+	private String negativeKey(String kind, String username) {
+		return keyHasher.hmacHex(kind + ':' + username);
+	}
+
+	private void checkNegativeCache(String negativeKey, String username) throws RestException {
+		if (negativeCache.containsKey(negativeKey)) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("{} is unknown to Crowd (from negative cache)", username);
+			}
+			throw new RestException("user " + username + " does not exist in Crowd", 404);
+		}
+	}
+
+	private void rememberNotFound(String negativeKey, RestException re) {
+		if (re.isNotFound()) {
+			negativeCache.put(negativeKey, Boolean.TRUE);
+		}
+	}
+
+	private void recordAuthFailure(String failuresKey) {
+		while (true) {
+			Integer current = authFailuresCache.putIfAbsent(failuresKey, 1);
+			if (current == null || authFailuresCache.replace(failuresKey, current, current + 1)) {
+				return;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<Set<String>> stringSetClass() {
+		return (Class<Set<String>>) (Class<?>) Set.class;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<Set<Role>> roleSetClass() {
+		return (Class<Set<Role>>) (Class<?>) Set.class;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> Class<Stale<V>> staleClass() {
+		return (Class<Stale<V>>) (Class<?>) Stale.class;
+	}
+
+	/**
+	 * A last known value and the time (milliseconds since the epoch) it was loaded from Crowd.
+	 */
+	private static final class Stale<V> {
+		final V value;
+		final long writtenAt = System.currentTimeMillis();
+
+		Stale(V value) {
+			this.value = value;
+		}
 	}
 }
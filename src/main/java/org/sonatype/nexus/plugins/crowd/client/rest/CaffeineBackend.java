@@ -0,0 +1,158 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.config.CacheSettings;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+/**
+ * Caches with Caffeine, whose W-TinyLFU eviction admits a new entry only if it is likely to be
+ * looked up more often than the entry it would evict: a burst of one-off logins does not push the
+ * frequently used accounts out of the cache, as it does with the LRU-like eviction of ehcache.
+ *
+ * With <code>cacheRefreshAhead</code> set, an entry looked up once that share of its time to live
+ * has elapsed is reloaded in the background, and keeps being served meanwhile; entries in use then
+ * never expire while entries no longer used do. Caches live on the heap only, an off-heap size is
+ * ignored.
+ */
+public class CaffeineBackend implements CacheBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(CaffeineBackend.class);
+
+    // per entry overhead beyond its key and value, for caches bounded by memory
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final int refreshAhead;
+
+    public CaffeineBackend(CrowdPluginConfiguration config) {
+        refreshAhead = config.getCacheRefreshAhead();
+    }
+
+    @Override
+    public <V> PluginCache<V> create(String name, Class<V> valueClass, CacheSettings settings, CacheCodec<V> codec,
+            Consumer<String> discarded, Function<String, CompletableFuture<V>> reloader) {
+        // maintenance and listeners run on the calling thread, as with ehcache's synchronous listeners
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().executor(Runnable::run);
+        if (settings.getHeapSizeMB() > 0) {
+            builder.maximumWeight(settings.getHeapSizeMB() * 1024 * 1024)
+                    .weigher((String key, V value) -> weigh(key, value, codec));
+        } else {
+            builder.maximumSize(settings.getHeapEntries());
+        }
+        if (settings.getOffHeapSizeMB() > 0) {
+            LOG.warn("Cache {} kept on heap only, the caffeine backend has no off-heap tier", name);
+        }
+
+        if (settings.getTtiSeconds() > 0) {
+            builder.expireAfterAccess(Duration.ofSeconds(settings.getTtiSeconds()));
+        } else if (!settings.isEternal()) {
+            builder.expireAfterWrite(Duration.ofSeconds(settings.getTtlSeconds()));
+        }
+
+        if (discarded != null) {
+            builder.removalListener((String key, V value, RemovalCause cause) -> discarded.accept(key));
+        }
+
+        long refreshSeconds = settings.getTtiSeconds() > 0 || settings.isEternal() ? 0 : settings.getTtlSeconds() * refreshAhead / 100;
+        if (reloader == null || refreshSeconds == 0) {
+            return new CaffeinePluginCache<>(builder.<String, V>build());
+        }
+
+        builder.refreshAfterWrite(Duration.ofSeconds(refreshSeconds));
+        AsyncCacheLoader<String, V> loader = new AsyncCacheLoader<String, V>() {
+            @Override
+            public CompletableFuture<? extends V> asyncLoad(String key, Executor executor) {
+                return reloader.apply(key);
+            }
+
+            @Override
+            public CompletableFuture<? extends V> asyncReload(String key, V oldValue, Executor executor) {
+                return reloader.apply(key);
+            }
+        };
+        return new CaffeinePluginCache<>(builder.<String, V>buildAsync(loader).synchronous());
+    }
+
+    private static <V> int weigh(String key, V value, CacheCodec<V> codec) {
+        int valueSize = codec == null ? 16 : codec.encode(value).remaining();
+        return ENTRY_OVERHEAD + 2 * key.length() + valueSize;
+    }
+
+    @Override
+    public void destroy(PluginCache<?> cache) {
+        ((CaffeinePluginCache<?>) cache).cache.cleanUp();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class CaffeinePluginCache<V> implements PluginCache<V> {
+        final Cache<String, V> cache;
+
+        CaffeinePluginCache(Cache<String, V> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public V get(String key) {
+            return cache.getIfPresent(key);
+        }
+
+        @Override
+        public boolean containsKey(String key) {
+            return cache.asMap().containsKey(key);
+        }
+
+        @Override
+        public void put(String key, V value) {
+            cache.put(key, value);
+        }
+
+        @Override
+        public V putIfAbsent(String key, V value) {
+            return cache.asMap().putIfAbsent(key, value);
+        }
+
+        @Override
+        public boolean replace(String key, V oldValue, V newValue) {
+            return cache.asMap().replace(key, oldValue, newValue);
+        }
+
+        @Override
+        public void remove(String key) {
+            cache.invalidate(key);
+        }
+
+        @Override
+        public void clear() {
+            cache.invalidateAll();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, V>> iterator() {
+            return cache.asMap().entrySet().iterator();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.protocol.HttpContext;
+import org.sonatype.nexus.plugins.crowd.client.rest.RequestClass.RestCall;
+
+/**
+ * Time spent by one request to Crowd in each of its phases, in nanoseconds. It travels in the
+ * {@link HttpContext} of the request, where the connection manager, the request executor and the
+ * response decoding add to it; recording a phase is a pair of <code>System.nanoTime()</code> calls.
+ */
+final class CallTiming {
+    private static final String ATTRIBUTE = CallTiming.class.getName();
+
+    // what the caches knew about the entity being requested, set by the caching client
+    private static final ThreadLocal<String> CACHE_STATE = new ThreadLocal<>();
+
+    final long start = System.nanoTime();
+    // leases happen on the calling thread, where the connection manager sums their waits
+    private final long leaseMark = InstrumentedConnectionManager.leaseWaited();
+    long admission;
+    long lease;
+    long connect;
+    long tls;
+    long send;
+    long server;
+    long transfer;
+    long unmarshal;
+    long total;
+
+    /**
+     * @return the timing travelling in <code>context</code>, null if the request is not timed
+     */
+    static CallTiming of(HttpContext context) {
+        return context == null ? null : (CallTiming) context.getAttribute(ATTRIBUTE);
+    }
+
+    void attach(HttpContext context) {
+        context.setAttribute(ATTRIBUTE, this);
+    }
+
+    /**
+     * Runs <code>call</code>, describing the state of the caches in the slow calls it makes.
+     */
+    static <T> T withCacheState(String state, RestCall<T> call) throws RestException {
+        String outer = CACHE_STATE.get();
+        CACHE_STATE.set(state);
+        try {
+            return call.call();
+        } finally {
+            if (outer == null) {
+                CACHE_STATE.remove();
+            } else {
+                CACHE_STATE.set(outer);
+            }
+        }
+    }
+
+    /**
+     * @return the state set by the innermost {@link #withCacheState}, "uncached" outside of any
+     */
+    static String cacheState() {
+        String state = CACHE_STATE.get();
+        return state == null ? "uncached" : state;
+    }
+
+    /**
+     * Stops the clock.
+     *
+     * @return the total time of the request
+     */
+    long finish() {
+        total = System.nanoTime() - start;
+        lease = InstrumentedConnectionManager.leaseWaited() - leaseMark;
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        long other = total - admission - lease - connect - tls - send - server - transfer - unmarshal;
+        return "admission " + millis(admission)
+                + ", lease " + millis(lease)
+                + ", connect " + millis(connect)
+                + ", tls " + millis(tls)
+                + ", send " + millis(send)
+                + ", server " + millis(server)
+                + ", transfer " + millis(transfer)
+                + ", unmarshal " + millis(unmarshal)
+                + ", other " + millis(Math.max(other, 0));
+    }
+
+    private static String millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+    }
+}
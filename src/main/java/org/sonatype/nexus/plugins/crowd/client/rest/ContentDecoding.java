@@ -0,0 +1,136 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Decodes gzip and deflate responses as they are read, the body is never buffered, and counts the
+ * bytes received on the wire and the bytes decoded. Replaces the decoding built in HttpClient,
+ * which hides the size of the compressed body. Time blocked reading the body on the wire is added
+ * to the {@link CallTiming} of the request, if any.
+ */
+final class ContentDecoding implements HttpResponseInterceptor {
+    /**
+     * Context attribute holding the {@link AtomicLong} count of bytes received for the response.
+     */
+    static final String BYTES_ON_WIRE = ContentDecoding.class.getName() + ".bytesOnWire";
+
+    private final Meter bytesOnWire;
+    private final Meter bytesDecoded;
+
+    ContentDecoding(Meter bytesOnWire, Meter bytesDecoded) {
+        this.bytesOnWire = bytesOnWire;
+        this.bytesDecoded = bytesDecoded;
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0) {
+            return;
+        }
+
+        AtomicLong received = new AtomicLong();
+        context.setAttribute(BYTES_ON_WIRE, received);
+        HttpEntity wire = new CountingEntity(entity, bytesOnWire, received, CallTiming.of(context));
+        Header encoding = entity.getContentEncoding();
+        String coding = encoding == null ? "identity" : encoding.getValue().trim().toLowerCase(Locale.ROOT);
+        switch (coding) {
+            case "gzip":
+            case "x-gzip":
+                response.setEntity(new CountingEntity(new GzipDecompressingEntity(wire), bytesDecoded, null, null));
+                break;
+
+            case "deflate":
+                response.setEntity(new CountingEntity(new DeflateDecompressingEntity(wire), bytesDecoded, null, null));
+                break;
+
+            case "identity":
+                response.setEntity(new CountingEntity(wire, bytesDecoded, null, null));
+                return;
+
+            default:
+                throw new HttpException("Unsupported Content-Encoding: " + coding);
+        }
+        response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+
+    private static final class CountingEntity extends HttpEntityWrapper {
+        private final Meter bytes;
+        private final AtomicLong count;
+        // time blocked reading the body, when the request is timed
+        private final CallTiming timing;
+
+        CountingEntity(HttpEntity entity, Meter bytes, AtomicLong count, CallTiming timing) {
+            super(entity);
+            this.bytes = bytes;
+            this.count = count;
+            this.timing = timing;
+        }
+
+        private void counted(long n) {
+            bytes.mark(n);
+            if (count != null) {
+                count.addAndGet(n);
+            }
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        counted(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int off, int len) throws IOException {
+                    int n;
+                    if (timing == null) {
+                        n = super.read(buffer, off, len);
+                    } else {
+                        long start = System.nanoTime();
+                        n = super.read(buffer, off, len);
+                        timing.transfer += System.nanoTime() - start;
+                    }
+                    if (n > 0) {
+                        counted(n);
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+}
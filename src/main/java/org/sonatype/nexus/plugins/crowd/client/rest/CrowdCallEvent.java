@@ -0,0 +1,63 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of one HTTP request to Crowd, from admission to the end of parsing.
+ */
+@Name("org.sonatype.nexus.plugins.crowd.CrowdCall")
+@Label("Crowd Call")
+@Category({ "Nexus", "Crowd" })
+@Description("An HTTP request sent to Crowd, response parsing included")
+@StackTrace(false)
+final class CrowdCallEvent extends jdk.jfr.Event {
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Request Class")
+    String requestClass;
+
+    @Label("Status")
+    @Description("HTTP status of the response, -1 if there was none")
+    int status;
+
+    @Label("Pool Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long poolWait;
+
+    @Label("Bytes On Wire")
+    @DataAmount
+    long bytes;
+
+    @Label("Page")
+    @Description("Index of the page in a paginated operation, starting at 0")
+    int page;
+
+    @Label("Attempt")
+    int attempt;
+
+    /**
+     * @return the path of the endpoint, without query
+     */
+    static String endpoint(CharSequence pathAndQuery) {
+        String value = pathAndQuery.toString();
+        int query = value.indexOf('?');
+        return query < 0 ? value : value.substring(0, query);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.SharedMetricRegistries;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+
+/**
+ * Metrics of the Crowd plugin, published in the registry Nexus exposes through its metrics
+ * endpoint. All names are prefixed with <code>crowd.</code>.
+ */
+@Named
+@Singleton
+public class CrowdMetrics {
+    static final String PREFIX = "crowd.";
+
+    private final MetricRegistry registry;
+
+    public CrowdMetrics() {
+        this(SharedMetricRegistries.getOrCreate("nexus"));
+    }
+
+    public CrowdMetrics(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param name short name of the cache
+     * @return the hit/miss meters of the cache, created on first use
+     */
+    public CacheMetrics cache(String name) {
+        return new CacheMetrics(name);
+    }
+
+    /**
+     * Hit and miss meters of one cache, plus its hit ratio as a gauge.
+     */
+    public final class CacheMetrics {
+        private final Meter hits;
+        private final Meter misses;
+
+        private CacheMetrics(String name) {
+            String prefix = PREFIX + "cache." + name;
+            hits = registry.meter(prefix + ".hits");
+            misses = registry.meter(prefix + ".misses");
+            registry.gauge(prefix + ".hitRatio", () -> new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+                }
+            });
+        }
+
+        public void hit() {
+            hits.mark();
+        }
+
+        public void miss() {
+            misses.mark();
+        }
+
+        public long getHits() {
+            return hits.getCount();
+        }
+
+        public long getMisses() {
+            return misses.getCount();
+        }
+
+        /**
+         * @return ratio of hits over lookups since startup, NaN without lookups
+         */
+        public double getHitRatio() {
+            return RatioGauge.Ratio.of(hits.getCount(), hits.getCount() + misses.getCount()).getValue();
+        }
+    }
+}
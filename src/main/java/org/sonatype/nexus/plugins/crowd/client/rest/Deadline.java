@@ -0,0 +1,93 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which the operation running on the current thread must be done. Every request sent
+ * to Crowd on behalf of the operation, whatever the page or the attempt, is bounded by it. Nested
+ * operations keep the earlier of their own deadline and the one they run in.
+ */
+final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Runs <code>call</code> within <code>timeoutMillis</code>, or within the deadline already in
+     * effect on this thread if it is earlier.
+     * 
+     * @param timeoutMillis time allowed to the operation, 0 for no limit of its own
+     * @param call
+     * @return the result of <code>call</code>
+     * @throws RestException
+     */
+    static <T> T within(long timeoutMillis, RequestClass.RestCall<T> call) throws RestException {
+        if (timeoutMillis <= 0) {
+            return call.call();
+        }
+        Deadline current = CURRENT.get();
+        long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (current != null && current.expiresAt - expiresAt <= 0) {
+            return call.call();
+        }
+        return new Deadline(expiresAt).run(call);
+    }
+
+    /**
+     * @return the deadline in effect on this thread, null if there is none
+     */
+    static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the time left (nanoseconds) to the operation running on this thread, Long.MAX_VALUE if unbounded
+     */
+    static long remainingNanos() {
+        Deadline current = CURRENT.get();
+        return current == null ? Long.MAX_VALUE : current.remaining(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs <code>call</code> bound by this deadline, typically on another thread working for the
+     * operation that owns it.
+     */
+    <T> T run(RequestClass.RestCall<T> call) throws RestException {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return the time left, never negative
+     */
+    long remaining(TimeUnit unit) {
+        return unit.convert(Math.max(expiresAt - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+}
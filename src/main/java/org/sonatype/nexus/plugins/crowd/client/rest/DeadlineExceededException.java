@@ -0,0 +1,27 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+/**
+ * Raised when an operation toward Crowd ran out of time, all pages and retries included. Callers
+ * may fall back to cached data.
+ */
+public class DeadlineExceededException extends RequestRejectedException {
+	private static final long serialVersionUID = -5163950841950377432L;
+
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+
+	public DeadlineExceededException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
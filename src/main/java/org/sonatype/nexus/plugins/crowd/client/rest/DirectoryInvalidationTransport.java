@@ -0,0 +1,149 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+/**
+ * Exchanges invalidations through a directory shared by the Nexus nodes, such as the NFS mount
+ * they already share for blob stores. Each invalidation is a small file, written under a temporary
+ * name and renamed so that it is never read half written; every node polls the directory for the
+ * files it has not seen yet, and deletes the files older than a few minutes.
+ *
+ * Polling, rather than a watch service, because file system events are not reported across hosts
+ * on network file systems.
+ */
+public class DirectoryInvalidationTransport implements InvalidationTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryInvalidationTransport.class);
+
+    private static final String SUFFIX = ".invalidation";
+    private static final String ALL = "*";
+    private static final long RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Path directory;
+    private final long pollIntervalMillis;
+    private final String prefix = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService poller;
+
+    // files already delivered, forgotten once deleted; only touched by the poller thread
+    private Set<String> seen;
+    private volatile Consumer<Invalidation> subscriber;
+
+    public DirectoryInvalidationTransport(CrowdPluginConfiguration config) throws IOException {
+        directory = Paths.get(config.getInvalidationDirectory());
+        pollIntervalMillis = config.getInvalidationPollInterval();
+        Files.createDirectories(directory);
+
+        // invalidations published before this node started do not concern its empty caches
+        seen = list();
+
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crowd-plugin-invalidation-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void publish(Invalidation invalidation) throws IOException {
+        String name = prefix + '-' + sequence.incrementAndGet();
+        Path tmp = directory.resolve(name + ".tmp");
+        String username = invalidation.isAll() ? ALL : invalidation.getUsername();
+        Files.write(tmp, List.of(invalidation.getOrigin(), username), StandardCharsets.UTF_8);
+        Files.move(tmp, directory.resolve(name + SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void subscribe(Consumer<Invalidation> subscriber) {
+        this.subscriber = subscriber;
+        poller.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        poller.shutdownNow();
+    }
+
+    private void poll() {
+        try {
+            Set<String> present = list();
+            long expiry = System.currentTimeMillis() - RETENTION_MILLIS;
+            for (String name : present) {
+                Path file = directory.resolve(name);
+                if (seen.add(name)) {
+                    deliver(file);
+                }
+                expire(file, expiry);
+            }
+            seen.retainAll(present);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to poll {} for cache invalidations: {}", directory, e.toString());
+        }
+    }
+
+    private void deliver(Path file) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException nsfe) {
+            // expired by another node meanwhile
+            return;
+        }
+        if (lines.size() != 2) {
+            LOG.warn("Ignoring invalid cache invalidation {}", file);
+            return;
+        }
+        String username = lines.get(1);
+        subscriber.accept(new Invalidation(lines.get(0), ALL.equals(username) ? null : username));
+    }
+
+    // any node may delete an expired file, the others ignore it having vanished
+    private static void expire(Path file, long expiry) {
+        try {
+            if (Files.getLastModifiedTime(file).toMillis() < expiry) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException ioe) {
+            LOG.debug("Unable to delete expired cache invalidation {}", file, ioe);
+        }
+    }
+
+    private Set<String> list() throws IOException {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        return names;
+    }
+}
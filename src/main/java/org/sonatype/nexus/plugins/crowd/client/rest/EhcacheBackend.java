@@ -0,0 +1,204 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventType;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+import org.sonatype.nexus.plugins.crowd.config.CacheSettings;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+/**
+ * The default backend: ehcache, with a heap tier bounded by entry count or by memory and an
+ * optional off-heap tier. Clearing a cache does not raise discard events. Entries are not
+ * refreshed, they expire.
+ */
+public class EhcacheBackend implements CacheBackend {
+    private final CacheManager cacheManager;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public EhcacheBackend(CrowdPluginConfiguration config) {
+        cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
+        cacheManager.init();
+    }
+
+    @Override
+    public <V> PluginCache<V> create(String name, Class<V> valueClass, CacheSettings settings, CacheCodec<V> codec,
+            Consumer<String> discarded, Function<String, CompletableFuture<V>> reloader) {
+        ResourcePoolsBuilder pools;
+        if (settings.getHeapSizeMB() > 0) {
+            pools = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(settings.getHeapSizeMB(), MemoryUnit.MB);
+        } else {
+            pools = ResourcePoolsBuilder.heap(settings.getHeapEntries());
+        }
+        if (settings.getOffHeapSizeMB() > 0) {
+            pools = pools.offheap(settings.getOffHeapSizeMB(), MemoryUnit.MB);
+        }
+
+        ExpiryPolicy<Object, Object> expiry;
+        if (settings.isEternal()) {
+            expiry = ExpiryPolicyBuilder.noExpiration();
+        } else if (settings.getTtiSeconds() > 0) {
+            expiry = ExpiryPolicyBuilder.timeToIdleExpiration(Duration.of(settings.getTtiSeconds(), ChronoUnit.SECONDS));
+        } else {
+            expiry = ExpiryPolicyBuilder.timeToLiveExpiration(Duration.of(settings.getTtlSeconds(), ChronoUnit.SECONDS));
+        }
+
+        CacheConfigurationBuilder<String, V> builder = CacheConfigurationBuilder
+                .newCacheConfigurationBuilder(String.class, valueClass, pools)
+                .withExpiry(expiry);
+        if (settings.getOffHeapSizeMB() > 0 && codec != null) {
+            builder = builder.withValueSerializer(new CodecSerializer<>(codec));
+        }
+        if (discarded != null) {
+            CacheEventListener<String, V> listener = event -> discarded.accept(event.getKey());
+            builder = builder.withService(CacheEventListenerConfigurationBuilder
+                    .newEventListenerConfiguration(listener, EventType.UPDATED, EventType.REMOVED, EventType.EXPIRED, EventType.EVICTED)
+                    .synchronous()
+                    .unordered());
+        }
+
+        String alias = name + "." + generation.incrementAndGet();
+        return new EhcachePluginCache<>(alias, cacheManager.createCache(alias, builder.build()));
+    }
+
+    @Override
+    public void destroy(PluginCache<?> cache) {
+        cacheManager.removeCache(((EhcachePluginCache<?>) cache).alias);
+    }
+
+    @Override
+    public void close() {
+        cacheManager.close();
+    }
+
+    private static final class EhcachePluginCache<V> implements PluginCache<V> {
+        final String alias;
+        final Cache<String, V> cache;
+
+        EhcachePluginCache(String alias, Cache<String, V> cache) {
+            this.alias = alias;
+            this.cache = cache;
+        }
+
+        @Override
+        public V get(String key) {
+            return cache.get(key);
+        }
+
+        @Override
+        public boolean containsKey(String key) {
+            return cache.containsKey(key);
+        }
+
+        @Override
+        public void put(String key, V value) {
+            cache.put(key, value);
+        }
+
+        @Override
+        public V putIfAbsent(String key, V value) {
+            return cache.putIfAbsent(key, value);
+        }
+
+        @Override
+        public boolean replace(String key, V oldValue, V newValue) {
+            return cache.replace(key, oldValue, newValue);
+        }
+
+        @Override
+        public void remove(String key) {
+            cache.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            cache.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, V>> iterator() {
+            Iterator<Cache.Entry<String, V>> entries = cache.iterator();
+            return new Iterator<Map.Entry<String, V>>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, V> next() {
+                    Cache.Entry<String, V> entry = entries.next();
+                    return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+                }
+            };
+        }
+    }
+
+    /**
+     * Lets ehcache write values with the plugin's codec.
+     */
+    private static final class CodecSerializer<V> implements Serializer<V> {
+        private final CacheCodec<V> codec;
+
+        CodecSerializer(CacheCodec<V> codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public ByteBuffer serialize(V object) throws SerializerException {
+            try {
+                return codec.encode(object);
+            } catch (UncheckedIOException uioe) {
+                throw new SerializerException(uioe.getCause());
+            }
+        }
+
+        @Override
+        public V read(ByteBuffer binary) throws SerializerException {
+            try {
+                return codec.decode(binary);
+            } catch (UncheckedIOException uioe) {
+                throw new SerializerException(uioe.getCause());
+            }
+        }
+
+        @Override
+        public boolean equals(V object, ByteBuffer binary) throws SerializerException {
+            try {
+                return codec.matches(object, binary);
+            } catch (UncheckedIOException uioe) {
+                throw new SerializerException(uioe.getCause());
+            }
+        }
+    }
+}
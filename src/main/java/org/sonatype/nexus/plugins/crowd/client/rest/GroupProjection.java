@@ -0,0 +1,88 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+/**
+ * Selects the Crowd groups worth keeping, applied to each page once it is unmarshalled and before
+ * anything is cached, so that dropped groups are never cached nor handed to Shiro. The patterns are
+ * compiled once per configuration.
+ */
+final class GroupProjection implements Predicate<String> {
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+    private final boolean mappedOnly;
+
+    GroupProjection(CrowdPluginConfiguration config) {
+        includes = compile(config.getGroupInclude());
+        excludes = compile(config.getGroupExclude());
+        mappedOnly = config.isGroupMappedOnly();
+    }
+
+    /**
+     * @return true if the group <code>name</code> passes the include and exclude patterns
+     */
+    @Override
+    public boolean test(String name) {
+        if (!includes.isEmpty() && includes.stream().noneMatch(p -> p.matcher(name).matches())) {
+            return false;
+        }
+        return excludes.stream().noneMatch(p -> p.matcher(name).matches());
+    }
+
+    /**
+     * @param mappedGroups source of the groups mapped to Nexus roles
+     * @return the filter of the nested groups of a user, restricted to mapped groups if configured
+     */
+    Predicate<String> forNestedGroups(MappedGroups mappedGroups) {
+        if (!mappedOnly) {
+            return this;
+        }
+        Set<String> mapped = mappedGroups.get();
+        if (mapped == null) {
+            return this;
+        }
+        return and(name -> mapped.contains(name.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * @return true if groups selected under <code>previous</code> are still the ones selected under <code>current</code>
+     */
+    static boolean isUnchanged(CrowdPluginConfiguration previous, CrowdPluginConfiguration current) {
+        return Objects.equals(previous.getGroupInclude(), current.getGroupInclude())
+                && Objects.equals(previous.getGroupExclude(), current.getGroupExclude())
+                && previous.isGroupMappedOnly() == current.isGroupMappedOnly();
+    }
+
+    private static List<Pattern> compile(String patterns) {
+        if (StringUtils.isBlank(patterns)) {
+            return Collections.emptyList();
+        }
+        List<Pattern> compiled = new ArrayList<>();
+        for (String pattern : StringUtils.split(patterns, ',')) {
+            if (StringUtils.isNotBlank(pattern)) {
+                compiled.add(Pattern.compile(pattern.trim()));
+            }
+        }
+        return compiled;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+/**
+ * Counts how often each username is looked up, and periodically saves the most frequent ones so
+ * that the warm-up can preload them after a restart. Only usernames are saved, one per line, most
+ * frequent first; counts are halved at each save so that the list follows who is active lately.
+ */
+final class HotPrincipals {
+    private static final Logger LOG = LoggerFactory.getLogger(HotPrincipals.class);
+
+    // room for newcomers between two saves, beyond the usernames that are saved
+    private static final int TRACKED_FACTOR = 4;
+
+    private final Path file;
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile int capacity;
+    private int saveInterval;
+    private ScheduledFuture<?> saves;
+
+    /**
+     * @param file where the usernames are saved, null to neither count nor save them
+     */
+    HotPrincipals(Path file, CrowdPluginConfiguration config) {
+        this.file = file;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crowd-plugin-hot-principals");
+            thread.setDaemon(true);
+            return thread;
+        });
+        configure(config);
+    }
+
+    synchronized void configure(CrowdPluginConfiguration config) {
+        capacity = file == null ? 0 : config.getHotPrincipals();
+        if (capacity == 0) {
+            counts.clear();
+        }
+        int interval = config.getHotPrincipalsSaveInterval();
+        if (saves != null && (capacity == 0 || interval != saveInterval)) {
+            saves.cancel(false);
+            saves = null;
+        }
+        if (saves == null && capacity > 0) {
+            saveInterval = interval;
+            saves = scheduler.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Counts a lookup of <code>username</code>. Lookups made by the warm-up are not counted.
+     */
+    void record(String username) {
+        int max = capacity * TRACKED_FACTOR;
+        if (max == 0 || RequestClass.effective(RequestClass.INTERACTIVE) == RequestClass.BACKGROUND) {
+            return;
+        }
+        AtomicLong count = counts.get(username);
+        if (count == null) {
+            if (counts.size() >= max) {
+                return;
+            }
+            count = counts.computeIfAbsent(username, key -> new AtomicLong());
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return the usernames saved last, most frequent first
+     */
+    List<String> load() {
+        int max = capacity;
+        if (max == 0) {
+            return Collections.emptyList();
+        }
+        List<String> usernames;
+        try {
+            usernames = Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .limit(max)
+                    .collect(Collectors.toList());
+        } catch (NoSuchFileException nsfe) {
+            return Collections.emptyList();
+        } catch (IOException ioe) {
+            LOG.warn("Unable to read the frequent Crowd users from {}: {}", file, ioe.toString());
+            return Collections.emptyList();
+        }
+        // kept until the next save, even if they are not looked up meanwhile
+        for (String username : usernames) {
+            counts.putIfAbsent(username, new AtomicLong(1));
+        }
+        return usernames;
+    }
+
+    /**
+     * Saves the most frequent usernames, then ages the counts.
+     */
+    synchronized void save() {
+        int max = capacity;
+        if (max == 0) {
+            return;
+        }
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>(counts.size());
+        counts.forEach((username, count) -> ranked.add(Map.entry(username, count.get())));
+        if (ranked.isEmpty()) {
+            return;
+        }
+        ranked.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        List<String> usernames = ranked.stream().limit(max).map(Map.Entry::getKey).collect(Collectors.toList());
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, usernames, StandardCharsets.UTF_8);
+            restrict(tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            LOG.warn("Unable to save the frequent Crowd users to {}: {}", file, ioe.toString());
+        }
+
+        for (int i = 0; i < ranked.size(); i++) {
+            String username = ranked.get(i).getKey();
+            if (i >= max * 2 || counts.get(username).updateAndGet(count -> count / 2) == 0) {
+                counts.remove(username);
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic saves, after a last one.
+     */
+    void close() {
+        scheduler.shutdownNow();
+        save();
+    }
+
+    // usernames are not secret, but there is no reason for anyone else to read them
+    static void restrict(Path path) {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            LOG.debug("Unable to restrict the permissions of {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+import org.sonatype.nexus.plugins.crowd.config.PoolSettings;
+
+/**
+ * The HTTP clients, their connection pools and the Crowd endpoint, as built from one configuration.
+ * {@link RestClient} replaces the whole transport when the configuration changes; an operation
+ * uses the same transport from its first request to its last page.
+ * 
+ * Each {@link RequestClass} gets its own pool, so a slow listing cannot hold the connections
+ * logins are waiting for.
+ */
+final class HttpTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(HttpTransport.class);
+
+    // how often draining checks for operations still running on a transport swapped out
+    private static final long DRAIN_POLL_MILLIS = 100;
+
+    final URI crowdServer;
+    final RequestTemplates templates;
+    private final Map<RequestClass, Pool> pools = new EnumMap<>(RequestClass.class);
+    private final HttpHost proxy;
+    private final int connectTimeout;
+    private final long keepAliveMillis;
+    // evicts idle connections and aborts requests running past their deadline
+    private final ScheduledExecutorService scheduler;
+    // operations between acquire and release, the transport is only closed once they are over
+    private final AtomicInteger operations = new AtomicInteger();
+    private volatile boolean retired;
+
+    HttpTransport(CrowdPluginConfiguration config, CrowdMetrics metrics) throws URISyntaxException {
+        crowdServer = new URI(config.getCrowdServerUrl()).resolve("rest/usermanagement/1/");
+
+        Credentials crowdCreds = new UsernamePasswordCredentials(config.getApplicationName(), config.getApplicationPassword());
+        templates = new RequestTemplates(crowdServer, crowdCreds, config.isHttpCompression());
+
+        // configure the http client
+        RequestConfig.Builder reqConfigBuilder = RequestConfig.custom()
+                .setAuthenticationEnabled(true)
+                .setConnectTimeout(config.getHttpTimeout())
+                .setSocketTimeout(config.getHttpTimeout());
+
+        // proxy settings
+        CredentialsProvider credsProvider = new BasicCredentialsProvider();
+        if (StringUtils.isNotBlank(config.getHttpProxyHost()) && config.getHttpProxyPort() > 0) {
+            proxy = new HttpHost(config.getHttpProxyHost(), config.getHttpProxyPort());
+            reqConfigBuilder.setProxy(proxy);
+
+            if (config.getHttpProxyUsername() != null && config.getHttpProxyPassword() != null) {
+                credsProvider.setCredentials(
+                        new AuthScope(proxy),
+                        new UsernamePasswordCredentials(config.getHttpProxyUsername(), config.getHttpProxyPassword()));
+            }
+        } else {
+            proxy = null;
+        }
+
+        connectTimeout = config.getHttpTimeout();
+        keepAliveMillis = config.getHttpKeepAlive();
+        ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+            long announced = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return announced > 0 ? Math.min(announced, keepAliveMillis) : keepAliveMillis;
+        };
+
+        ContentDecoding decoding = new ContentDecoding(
+                metrics.getRegistry().meter(CrowdMetrics.PREFIX + "http.bytesOnWire"),
+                metrics.getRegistry().meter(CrowdMetrics.PREFIX + "http.bytesDecoded"));
+
+        for (RequestClass requestClass : RequestClass.values()) {
+            pools.put(requestClass, new Pool(requestClass, poolSettings(config, requestClass), config.getHttpValidateAfterInactivity(),
+                    reqConfigBuilder, credsProvider, keepAlive, decoding, metrics));
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crowd-plugin-http-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evict, config.getHttpEvictionInterval(), config.getHttpEvictionInterval(),
+                TimeUnit.MILLISECONDS);
+
+        if (LOG.isDebugEnabled()) {
+            RequestConfig reqConfig = reqConfigBuilder.build();
+            LOG.debug("HTTP Client config");
+            LOG.debug(config.getCrowdServerUrl());
+            for (Map.Entry<RequestClass, Pool> pool : pools.entrySet()) {
+                LOG.debug("PROPERTY_THREADPOOL_SIZE(" + pool.getKey() + "):" + pool.getValue().cm.getMaxTotal());
+            }
+            LOG.debug("PROPERTY_READ_TIMEOUT:" + reqConfig.getSocketTimeout());
+            LOG.debug("PROPERTY_CONNECT_TIMEOUT:" + reqConfig.getConnectTimeout());
+            if (reqConfig.getProxy() != null) {
+                LOG.debug("PROPERTY_PROXY_URI:" + reqConfig.getProxy().toString());
+            }
+            LOG.debug("Crowd application name:" + config.getApplicationName());
+        }
+    }
+
+    /**
+     * @param requestClass
+     * @return the client whose pool serves requests of the given class
+     */
+    HttpClient client(RequestClass requestClass) {
+        return pools.get(requestClass).client;
+    }
+
+    /**
+     * @param requestClass
+     * @return the default configuration of the requests sent through the pool of the given class
+     */
+    RequestConfig requestConfig(RequestClass requestClass) {
+        return pools.get(requestClass).reqConfig;
+    }
+
+    /**
+     * Runs <code>task</code> once, after <code>delay</code>, on the transport's scheduler thread.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return scheduler.schedule(task, delay, unit);
+    }
+
+    /**
+     * @param requestClass
+     * @return leased, available and pending connections of the pool of the given class
+     */
+    PoolStats stats(RequestClass requestClass) {
+        return pools.get(requestClass).cm.getTotalStats();
+    }
+
+    /**
+     * @param requestClass
+     * @return prefix of the metrics of the pool of the given class
+     */
+    static String metricsPrefix(RequestClass requestClass) {
+        return CrowdMetrics.PREFIX + "pool." + requestClass.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true if a transport built from <code>previous</code> cannot serve <code>current</code>
+     */
+    static boolean isAffected(CrowdPluginConfiguration previous, CrowdPluginConfiguration current) {
+        return !Objects.equals(previous.getCrowdServerUrl(), current.getCrowdServerUrl())
+                || !Objects.equals(previous.getApplicationName(), current.getApplicationName())
+                || !Objects.equals(previous.getApplicationPassword(), current.getApplicationPassword())
+                || previous.getHttpTimeout() != current.getHttpTimeout()
+                || previous.getHttpKeepAlive() != current.getHttpKeepAlive()
+                || previous.isHttpCompression() != current.isHttpCompression()
+                || previous.getHttpValidateAfterInactivity() != current.getHttpValidateAfterInactivity()
+                || previous.getHttpEvictionInterval() != current.getHttpEvictionInterval()
+                || !previous.getInteractivePoolSettings().equals(current.getInteractivePoolSettings())
+                || !previous.getBulkPoolSettings().equals(current.getBulkPoolSettings())
+                || !previous.getBackgroundPoolSettings().equals(current.getBackgroundPoolSettings())
+                || !Objects.equals(previous.getHttpProxyHost(), current.getHttpProxyHost())
+                || previous.getHttpProxyPort() != current.getHttpProxyPort()
+                || !Objects.equals(previous.getHttpProxyUsername(), current.getHttpProxyUsername())
+                || !Objects.equals(previous.getHttpProxyPassword(), current.getHttpProxyPassword());
+    }
+
+    /**
+     * Registers an operation about to send requests through this transport. Between two pages an
+     * operation holds no connection, the transport is nevertheless kept open until it is
+     * {@link #release() released}.
+     * 
+     * @return false if the transport is being drained or closed, the operation must use the current one
+     */
+    boolean acquire() {
+        operations.incrementAndGet();
+        // counted before checking, so that draining either sees the operation or is seen by it
+        if (retired) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ends an operation registered by {@link #acquire()}.
+     */
+    void release() {
+        operations.decrementAndGet();
+    }
+
+    /**
+     * Refuses new operations, waits for those running to end, then closes the pools. Operations
+     * still running after <code>maxWaitMillis</code> have their connection closed under them.
+     */
+    void drain(long maxWaitMillis) {
+        retired = true;
+        long start = System.nanoTime();
+        long maxWait = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        try {
+            while (operations.get() > 0 && System.nanoTime() - start < maxWait) {
+                for (Pool pool : pools.values()) {
+                    pool.cm.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+                }
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        retired = true;
+        scheduler.shutdownNow();
+        for (Pool pool : pools.values()) {
+            try {
+                pool.client.close();
+            } catch (IOException ioe) {
+                LOG.debug("Problem occured while closing the HTTP client", ioe);
+            }
+            pool.cm.close();
+        }
+    }
+
+    /**
+     * Opens connections to Crowd in the interactive pool, TLS handshake included, so that the first
+     * requests do not pay for it. Connections through a proxy to an HTTPS server need a tunnel set up
+     * by a real request and are not pre-warmed.
+     * 
+     * @param count number of connections to open
+     * @return number of connections actually opened
+     */
+    int prewarm(int count) {
+        HttpHost target = URIUtils.extractHost(crowdServer);
+        boolean secure = "https".equalsIgnoreCase(target.getSchemeName());
+        if (target.getPort() < 0) {
+            target = new HttpHost(target.getHostName(), secure ? 443 : 80, target.getSchemeName());
+        }
+        if (proxy != null && secure) {
+            LOG.info("Not pre-warming connections to Crowd through a proxy");
+            return 0;
+        }
+        HttpRoute route = proxy == null ? new HttpRoute(target, null, secure) : new HttpRoute(target, null, proxy, false);
+
+        InstrumentedConnectionManager cm = pools.get(RequestClass.INTERACTIVE).cm;
+        count = Math.min(count, cm.getDefaultMaxPerRoute());
+        List<HttpClientConnection> opened = new ArrayList<>(count);
+        try {
+            // hold every connection until all are open, otherwise the same one would be handed out again
+            for (int i = 0; i < count; i++) {
+                HttpClientConnection conn = cm.requestConnection(route, null).get(connectTimeout, TimeUnit.MILLISECONDS);
+                opened.add(conn);
+                if (!conn.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    cm.connect(conn, route, connectTimeout, context);
+                    cm.routeComplete(conn, route, context);
+                }
+            }
+        } catch (IOException | ExecutionException e) {
+            LOG.warn("Unable to pre-warm connections to Crowd: {}", e.getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (HttpClientConnection conn : opened) {
+                cm.releaseConnection(conn, null, keepAliveMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return opened.size();
+    }
+
+    private void evict() {
+        for (Pool pool : pools.values()) {
+            pool.cm.closeExpiredConnections();
+            pool.cm.closeIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static PoolSettings poolSettings(CrowdPluginConfiguration config, RequestClass requestClass) {
+        switch (requestClass) {
+            case INTERACTIVE:
+                return config.getInteractivePoolSettings();
+            case BULK:
+                return config.getBulkPoolSettings();
+            default:
+                return config.getBackgroundPoolSettings();
+        }
+    }
+
+    /**
+     * A connection pool and the client leasing from it.
+     */
+    private static final class Pool {
+        final InstrumentedConnectionManager cm;
+        final RequestConfig reqConfig;
+        final CloseableHttpClient client;
+
+        Pool(RequestClass requestClass, PoolSettings settings, int validateAfterInactivity, RequestConfig.Builder reqConfigBuilder,
+                CredentialsProvider credsProvider, ConnectionKeepAliveStrategy keepAlive, ContentDecoding decoding, CrowdMetrics metrics) {
+            // metrics are looked up by name, so they carry over when the transport is rebuilt
+            String prefix = metricsPrefix(requestClass);
+            cm = new InstrumentedConnectionManager(
+                    metrics.getRegistry().timer(prefix + ".leaseWait"),
+                    metrics.getRegistry().meter(prefix + ".exhausted"));
+            cm.setMaxTotal(settings.getMaxConnections());
+            cm.setDefaultMaxPerRoute(settings.getMaxConnections());
+            cm.setValidateAfterInactivity(validateAfterInactivity);
+
+            reqConfig = RequestConfig.copy(reqConfigBuilder.build())
+                    .setConnectionRequestTimeout(settings.getLeaseTimeout())
+                    .build();
+            HttpClientBuilder hcBuilder = HttpClients.custom()
+                    .setMaxConnPerRoute(settings.getMaxConnections())
+                    .setMaxConnTotal(settings.getMaxConnections())
+                    .setConnectionManager(cm)
+                    .setKeepAliveStrategy(keepAlive)
+                    .disableContentCompression()
+                    // retries are decided by RetryPolicy, which knows which requests are idempotent
+                    .disableAutomaticRetries()
+                    .addInterceptorLast(decoding)
+                    .setRequestExecutor(new TimedRequestExecutor())
+                    .setDefaultCredentialsProvider(credsProvider)
+                    .setDefaultRequestConfig(reqConfig);
+
+            client = hcBuilder.build();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+/**
+ * Connection pool recording how long requests wait to lease a connection, and how often they give
+ * up because the pool stayed exhausted. Connecting and the TLS handshake are added to the
+ * {@link CallTiming} of the request, if any.
+ */
+class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+    // wait of the last lease made by each thread and the sum of its waits, for the flight recorder
+    // events and the timing of the requests
+    private static final ThreadLocal<long[]> LEASE_WAIT = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final Timer leaseWait;
+    private final Meter exhausted;
+
+    InstrumentedConnectionManager(Timer leaseWait, Meter exhausted) {
+        super(socketFactories());
+        this.leaseWait = leaseWait;
+        this.exhausted = exhausted;
+    }
+
+    /**
+     * @return how long (nanoseconds) the last connection lease made by the current thread waited
+     */
+    static long lastLeaseWait() {
+        return LEASE_WAIT.get()[0];
+    }
+
+    /**
+     * @return how long (nanoseconds) the connection leases made by the current thread waited in total
+     */
+    static long leaseWaited() {
+        return LEASE_WAIT.get()[1];
+    }
+
+    // the default factories, with the TLS handshake timed
+    private static Registry<ConnectionSocketFactory> socketFactories() {
+        SSLConnectionSocketFactory tls = new SSLConnectionSocketFactory(SSLContexts.createDefault(),
+                SSLConnectionSocketFactory.getDefaultHostnameVerifier()) {
+            @Override
+            public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+                CallTiming timing = CallTiming.of(context);
+                if (timing == null) {
+                    return super.createLayeredSocket(socket, target, port, context);
+                }
+                long start = System.nanoTime();
+                try {
+                    return super.createLayeredSocket(socket, target, port, context);
+                } finally {
+                    timing.tls += System.nanoTime() - start;
+                }
+            }
+        };
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", tls)
+                .build();
+    }
+
+    @Override
+    public void connect(HttpClientConnection conn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+        CallTiming timing = CallTiming.of(context);
+        if (timing == null) {
+            super.connect(conn, route, connectTimeout, context);
+            return;
+        }
+        // a direct https connection is also layered here, the handshake is counted apart
+        long tls = timing.tls;
+        long start = System.nanoTime();
+        try {
+            super.connect(conn, route, connectTimeout, context);
+        } finally {
+            timing.connect += System.nanoTime() - start - (timing.tls - tls);
+        }
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        ConnectionRequest request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                long start = System.nanoTime();
+                try {
+                    return request.get(timeout, timeUnit);
+                } catch (ConnectionPoolTimeoutException cpte) {
+                    exhausted.mark();
+                    throw cpte;
+                } finally {
+                    long waited = System.nanoTime() - start;
+                    leaseWait.update(waited, TimeUnit.NANOSECONDS);
+                    long[] waits = LEASE_WAIT.get();
+                    waits[0] = waited;
+                    waits[1] += waited;
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.Objects;
+
+/**
+ * A cache invalidation sent to the other Nexus nodes: what is cached about one user, or everything.
+ */
+public final class Invalidation {
+    private final String origin;
+    private final String username;
+
+    /**
+     * @param origin identifier of the node that published the invalidation
+     * @param username canonical username, null for every user
+     */
+    public Invalidation(String origin, String username) {
+        this.origin = Objects.requireNonNull(origin);
+        this.username = username;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the canonical username, null when everything is invalidated
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isAll() {
+        return username == null;
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all from " + origin : "user " + username + " from " + origin;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+import com.codahale.metrics.Meter;
+
+/**
+ * Propagates the cache invalidations made on this node to the other Nexus nodes, and applies theirs
+ * here, through the {@link InvalidationTransport} named by the configuration.
+ */
+final class InvalidationBus {
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationBus.class);
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Consumer<Invalidation> local;
+    private final Meter published;
+    private final Meter received;
+
+    // null when invalidations stay on this node
+    private volatile InvalidationTransport transport;
+    private String transportName;
+    private String directory;
+    private int pollInterval;
+
+    /**
+     * @param local applies an invalidation received from another node
+     */
+    InvalidationBus(CrowdPluginConfiguration config, CrowdMetrics metrics, Consumer<Invalidation> local) {
+        this.local = local;
+        published = metrics.getRegistry().meter(CrowdMetrics.PREFIX + "invalidation.published");
+        received = metrics.getRegistry().meter(CrowdMetrics.PREFIX + "invalidation.received");
+        configure(config);
+    }
+
+    /**
+     * Replaces the transport when its settings changed. A transport that cannot be created is
+     * reported, and invalidations stay on this node until the configuration is fixed.
+     */
+    synchronized void configure(CrowdPluginConfiguration config) {
+        if (config.getInvalidationTransport().equals(transportName)
+                && Objects.equals(config.getInvalidationDirectory(), directory)
+                && config.getInvalidationPollInterval() == pollInterval) {
+            return;
+        }
+        transportName = config.getInvalidationTransport();
+        directory = config.getInvalidationDirectory();
+        pollInterval = config.getInvalidationPollInterval();
+
+        InvalidationTransport previous = transport;
+        transport = null;
+        if (previous != null) {
+            previous.close();
+        }
+
+        InvalidationTransport next;
+        try {
+            next = create(config);
+        } catch (Exception e) {
+            LOG.error("Unable to create the cache invalidation transport '{}', invalidations stay on this node", transportName, e);
+            return;
+        }
+        if (next != null) {
+            next.subscribe(this::received);
+            transport = next;
+            LOG.info("Cache invalidations propagated through the '{}' transport", transportName);
+        }
+    }
+
+    private static InvalidationTransport create(CrowdPluginConfiguration config) throws Exception {
+        switch (config.getInvalidationTransport()) {
+            case "none":
+                return null;
+
+            case "local":
+                return new LocalInvalidationTransport(config);
+
+            case "directory":
+                return new DirectoryInvalidationTransport(config);
+
+            default:
+                return Class.forName(config.getInvalidationTransport())
+                        .asSubclass(InvalidationTransport.class)
+                        .getConstructor(CrowdPluginConfiguration.class)
+                        .newInstance(config);
+        }
+    }
+
+    /**
+     * Sends an invalidation, already applied on this node, to the other nodes.
+     *
+     * @param username canonical username, null for every user
+     */
+    void publish(String username) {
+        InvalidationTransport t = transport;
+        if (t == null) {
+            return;
+        }
+        try {
+            t.publish(new Invalidation(nodeId, username));
+            published.mark();
+        } catch (Exception e) {
+            LOG.warn("Unable to propagate the invalidation of {} to the other nodes: {}",
+                    username == null ? "every user" : username, e.toString());
+        }
+    }
+
+    private void received(Invalidation invalidation) {
+        if (nodeId.equals(invalidation.getOrigin())) {
+            return;
+        }
+        received.mark();
+        LOG.debug("Applying cache invalidation: {}", invalidation);
+        local.accept(invalidation);
+    }
+
+    synchronized void close() {
+        InvalidationTransport t = transport;
+        transport = null;
+        if (t != null) {
+            t.close();
+        }
+    }
+}
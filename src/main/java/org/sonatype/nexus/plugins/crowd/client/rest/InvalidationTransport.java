@@ -0,0 +1,46 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Carries cache invalidations between the Nexus nodes. Implementations named by the
+ * <code>invalidationTransport</code> property need a public constructor taking the
+ * {@link org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration}.
+ * 
+ * Delivery may be delayed or repeated, invalidations are idempotent; they may also be delivered
+ * to the node that published them, which ignores them.
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Sends <code>invalidation</code> to the other nodes.
+     * 
+     * @param invalidation
+     * @throws IOException if it could not be sent
+     */
+    void publish(Invalidation invalidation) throws IOException;
+
+    /**
+     * Registers the receiver of the invalidations published by the nodes, called once before any
+     * publication.
+     * 
+     * @param subscriber
+     */
+    void subscribe(Consumer<Invalidation> subscriber);
+
+    /**
+     * Stops receiving invalidations.
+     */
+    void close();
+}
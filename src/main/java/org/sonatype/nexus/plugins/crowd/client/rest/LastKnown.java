@@ -0,0 +1,63 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+/**
+ * Tells whether the lookups made on the current thread were answered with a last known value,
+ * because Crowd could not be asked. What is derived from such an answer serves the request at hand
+ * and should not be cached.
+ */
+public final class LastKnown implements AutoCloseable {
+    private static final ThreadLocal<LastKnown> CURRENT = new ThreadLocal<>();
+
+    private final LastKnown outer;
+    private boolean served;
+
+    private LastKnown(LastKnown outer) {
+        this.outer = outer;
+    }
+
+    /**
+     * Starts watching the lookups made on this thread, until closed.
+     */
+    public static LastKnown watch() {
+        LastKnown watch = new LastKnown(CURRENT.get());
+        CURRENT.set(watch);
+        return watch;
+    }
+
+    /**
+     * @return true if a lookup made since {@link #watch()} was answered with a last known value
+     */
+    public boolean wasServed() {
+        return served;
+    }
+
+    /**
+     * Records that a last known value was answered on this thread.
+     */
+    static void served() {
+        LastKnown watch = CURRENT.get();
+        if (watch != null) {
+            watch.served = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (outer == null) {
+            CURRENT.remove();
+        } else {
+            outer.served |= served;
+            CURRENT.set(outer);
+        }
+    }
+}
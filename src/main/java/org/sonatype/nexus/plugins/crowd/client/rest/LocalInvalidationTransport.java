@@ -0,0 +1,48 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+/**
+ * Delivers invalidations to every client of the same JVM, synchronously. Meant for tests and for
+ * several Nexus instances embedded in one process.
+ */
+public class LocalInvalidationTransport implements InvalidationTransport {
+    private static final List<Consumer<Invalidation>> SUBSCRIBERS = new CopyOnWriteArrayList<>();
+
+    private Consumer<Invalidation> subscriber;
+
+    public LocalInvalidationTransport(CrowdPluginConfiguration config) {
+    }
+
+    @Override
+    public void publish(Invalidation invalidation) {
+        for (Consumer<Invalidation> each : SUBSCRIBERS) {
+            each.accept(invalidation);
+        }
+    }
+
+    @Override
+    public synchronized void subscribe(Consumer<Invalidation> subscriber) {
+        this.subscriber = subscriber;
+        SUBSCRIBERS.add(subscriber);
+    }
+
+    @Override
+    public synchronized void close() {
+        SUBSCRIBERS.remove(subscriber);
+    }
+}
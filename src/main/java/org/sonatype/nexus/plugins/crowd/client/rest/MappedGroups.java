@@ -0,0 +1,123 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.security.SecuritySystem;
+import org.sonatype.nexus.security.authz.NoSuchAuthorizationManagerException;
+import org.sonatype.nexus.security.role.Role;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Provider;
+import jakarta.inject.Singleton;
+
+/**
+ * Names (lower cased) of the Crowd groups currently mapped to a Nexus role, that is the ids of the
+ * roles defined in Nexus. Reloaded at most once a minute, and every minute while someone listens
+ * for changes.
+ */
+@Named
+@Singleton
+public class MappedGroups {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedGroups.class);
+
+    private static final String NEXUS_ROLE_SOURCE = "default";
+    private static final long REFRESH_MILLIS = 60_000;
+
+    // looked up lazily, the security system depends on the realm which depends on the rest client
+    private final Provider<SecuritySystem> securitySystem;
+
+    private volatile Set<String> groups;
+    private volatile long loadedAt;
+
+    private final Set<Runnable> listeners = new CopyOnWriteArraySet<>();
+    // reloads while there are listeners, null otherwise
+    private ScheduledExecutorService poller;
+
+    @Inject
+    public MappedGroups(Provider<SecuritySystem> securitySystem) {
+        this.securitySystem = securitySystem;
+    }
+
+    /**
+     * @return the mapped group names, or null if they cannot be determined
+     */
+    public Set<String> get() {
+        if (System.currentTimeMillis() - loadedAt > REFRESH_MILLIS) {
+            reload();
+        }
+        return groups;
+    }
+
+    /**
+     * Registers <code>listener</code>, run once the mapped groups are found to have changed. Adding
+     * a listener twice has no effect.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (listeners) {
+            if (listeners.add(listener) && poller == null) {
+                poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "crowd-plugin-mapped-groups");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                poller.scheduleWithFixedDelay(this::get, REFRESH_MILLIS, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Unregisters <code>listener</code>, stopping the periodic reloads after the last one.
+     */
+    public void removeListener(Runnable listener) {
+        synchronized (listeners) {
+            if (listeners.remove(listener) && listeners.isEmpty()) {
+                poller.shutdownNow();
+                poller = null;
+            }
+        }
+    }
+
+    private void reload() {
+        Set<String> previous;
+        Set<String> current;
+        synchronized (this) {
+            if (System.currentTimeMillis() - loadedAt <= REFRESH_MILLIS) {
+                return;
+            }
+            previous = groups;
+            try {
+                Set<Role> roles = securitySystem.get().listRoles(NEXUS_ROLE_SOURCE);
+                groups = roles.stream().map(role -> role.getRoleId().toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+            } catch (NoSuchAuthorizationManagerException | RuntimeException e) {
+                LOG.warn("Unable to list the Nexus roles, Crowd groups are not restricted to mapped ones: {}", e.getMessage());
+            }
+            loadedAt = System.currentTimeMillis();
+            current = groups;
+        }
+        // outside of the lock, listeners may look the groups up again
+        if (previous != null && !previous.equals(current)) {
+            LOG.info("Nexus roles changed, {} Crowd groups are mapped now", current.size());
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+}
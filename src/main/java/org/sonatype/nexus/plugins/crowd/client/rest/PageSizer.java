@@ -0,0 +1,110 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+/**
+ * Chooses the page size of one paginated Crowd endpoint. The size is halved when a page is slower
+ * than the target latency and grown by half while full pages come back in less than half of it,
+ * within the configured bounds. Optionally remembers how many entities a key (a user) had last
+ * time, so that the next lookup asks for a page large enough to be answered in one request.
+ */
+final class PageSizer {
+    private final AtomicInteger size;
+    private final Map<String, Integer> hints;
+    private volatile int min;
+    private volatile int max;
+    private volatile long targetNanos;
+    private volatile int maxHints;
+
+    /**
+     * @param initial page size to start with, within the configured bounds
+     * @param remember true to remember result counts per key
+     */
+    PageSizer(int initial, boolean remember, CrowdPluginConfiguration config) {
+        configure(config);
+        size = new AtomicInteger(clamp(initial));
+        hints = remember ? Collections.synchronizedMap(new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > maxHints;
+            }
+        }) : null;
+    }
+
+    /**
+     * Applies new bounds, keeping what was learnt so far.
+     */
+    void configure(CrowdPluginConfiguration config) {
+        min = config.getPageSizeMin();
+        max = config.getPageSizeMax();
+        targetNanos = TimeUnit.MILLISECONDS.toNanos(config.getPageTargetLatency());
+        maxHints = config.getPageSizeHints();
+    }
+
+    /**
+     * @return the page size to use now
+     */
+    int next() {
+        return clamp(size.get());
+    }
+
+    /**
+     * @param key the entity the pages are about
+     * @return the size of the first page for <code>key</code>, sized from its last result count when known
+     */
+    int first(String key) {
+        Integer known = hints == null ? null : hints.get(key);
+        if (known == null) {
+            return next();
+        }
+        // a full page means one more request, leave some room for growth
+        return clamp(known + Math.max(known / 10, 5));
+    }
+
+    /**
+     * Adjusts the page size after a page was served.
+     * 
+     * @param requested page size asked for
+     * @param returned number of entities in the page
+     * @param elapsedNanos time the page took
+     */
+    void observe(int requested, int returned, long elapsedNanos) {
+        if (elapsedNanos > targetNanos) {
+            size.updateAndGet(s -> clamp(s / 2));
+        } else if (returned >= requested && elapsedNanos < targetNanos / 2) {
+            size.updateAndGet(s -> clamp(s + Math.max(s / 2, 1)));
+        }
+    }
+
+    /**
+     * @param key the entity the pages were about
+     * @param total number of entities over all pages
+     */
+    void remember(String key, int total) {
+        if (hints != null && maxHints > 0) {
+            hints.put(key, total);
+        }
+    }
+
+    private int clamp(int value) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
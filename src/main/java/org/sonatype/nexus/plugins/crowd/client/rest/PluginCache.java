@@ -0,0 +1,47 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.Map;
+
+/**
+ * One of the plugin's caches, keyed by canonical username or by a key derived from it, as created
+ * by a {@link CacheBackend}. Implementations are safe for concurrent use.
+ */
+public interface PluginCache<V> extends Iterable<Map.Entry<String, V>> {
+
+    /**
+     * @param key
+     * @return the value cached for <code>key</code>, null if there is none or it expired
+     */
+    V get(String key);
+
+    boolean containsKey(String key);
+
+    void put(String key, V value);
+
+    /**
+     * @return the value already cached for <code>key</code>, null if <code>value</code> was put
+     */
+    V putIfAbsent(String key, V value);
+
+    /**
+     * @return true if <code>key</code> was mapped to <code>oldValue</code>, and now is to <code>newValue</code>
+     */
+    boolean replace(String key, V oldValue, V newValue);
+
+    void remove(String key);
+
+    /**
+     * Drops every entry. Whether the discard listener hears of them depends on the backend.
+     */
+    void clear();
+}
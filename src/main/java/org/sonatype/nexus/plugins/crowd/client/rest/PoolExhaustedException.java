@@ -0,0 +1,23 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+/**
+ * Raised when no connection to Crowd could be leased from the pool within the lease timeout. The
+ * request never reached Crowd.
+ */
+public class PoolExhaustedException extends RequestRejectedException {
+	private static final long serialVersionUID = 4409517355328165128L;
+
+	public PoolExhaustedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
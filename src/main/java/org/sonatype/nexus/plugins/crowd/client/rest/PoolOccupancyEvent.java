@@ -0,0 +1,45 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Periodic flight recorder event with the occupancy of one connection pool toward Crowd.
+ */
+@Name("org.sonatype.nexus.plugins.crowd.PoolOccupancy")
+@Label("Crowd Pool Occupancy")
+@Category({ "Nexus", "Crowd" })
+@Description("Connections of a pool toward Crowd")
+@StackTrace(false)
+@Period("10 s")
+final class PoolOccupancyEvent extends jdk.jfr.Event {
+    @Label("Request Class")
+    String requestClass;
+
+    @Label("Leased")
+    int leased;
+
+    @Label("Available")
+    int available;
+
+    @Label("Pending")
+    @Description("Requests waiting for a connection")
+    int pending;
+
+    @Label("Max")
+    int max;
+}
@@ -0,0 +1,72 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+/**
+ * Traffic classes of the requests sent to Crowd, in decreasing priority.
+ */
+public enum RequestClass {
+    /**
+     * A user waiting on a login or a permission check: authenticate, user and nested groups lookups.
+     */
+    INTERACTIVE,
+
+    /**
+     * Administrative listings: user search and the catalog of all groups.
+     */
+    BULK,
+
+    /**
+     * Work nobody is waiting on, such as cache warm-up or refreshes.
+     */
+    BACKGROUND;
+
+    private static final ThreadLocal<RequestClass> DEMOTION = new ThreadLocal<>();
+
+    /**
+     * Runs <code>call</code> with every Crowd request it makes issued at most with this priority, or
+     * with the priority of an enclosing run if that is lower.
+     * 
+     * @param call
+     * @return the result of <code>call</code>
+     * @throws RestException
+     */
+    public <T> T run(RestCall<T> call) throws RestException {
+        RequestClass previous = DEMOTION.get();
+        DEMOTION.set(previous != null && previous.ordinal() > ordinal() ? previous : this);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                DEMOTION.remove();
+            } else {
+                DEMOTION.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @param natural the class of the operation being performed
+     * @return the class a request of this operation is issued with on the current thread
+     */
+    static RequestClass effective(RequestClass natural) {
+        RequestClass demotion = DEMOTION.get();
+        return demotion != null && demotion.ordinal() > natural.ordinal() ? demotion : natural;
+    }
+
+    /**
+     * A call to the rest client.
+     */
+    @FunctionalInterface
+    public interface RestCall<T> {
+        T call() throws RestException;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+/**
+ * Raised when a request to Crowd is shed before being sent, for instance because the plugin's
+ * rate or concurrency limit toward Crowd was reached. Callers may fall back to cached data.
+ */
+public class RequestRejectedException extends RestException {
+	private static final long serialVersionUID = -2633415794325640421L;
+
+	public RequestRejectedException(String message) {
+		super(message);
+	}
+
+	public RequestRejectedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.net.URI;
+
+import javax.ws.rs.core.MediaType;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * The constant parts of the requests sent to Crowd, computed once per {@link HttpTransport}: the
+ * REST base URL, the Accept headers (Accept-Encoding when compression is enabled) and the preemptive
+ * application <code>Authorization</code> header. Building a request only appends the path and the
+ * encoded parameters.
+ */
+final class RequestTemplates {
+
+    static final String AUTHENTICATION = "authentication?username=";
+    static final String USER = "user?username=";
+    static final String NESTED_GROUPS = "user/group/nested?username=";
+    static final String COOKIE_CONFIG = "config/cookie";
+    static final String SEARCH_USERS = "search?entity-type=user&restriction=";
+    static final String SEARCH_GROUPS = "search?entity-type=group&expand=group&restriction=active%3dtrue";
+
+    private final String base;
+    // shared by every request, BasicHeader is immutable
+    private final Header[] headers;
+
+    RequestTemplates(URI crowdServer, Credentials crowdCreds, boolean compression) {
+        base = crowdServer.toString();
+
+        Header authorization;
+        try {
+            authorization = new BasicScheme().authenticate(crowdCreds, new HttpGet(crowdServer), HttpClientContext.create());
+        } catch (AuthenticationException ae) {
+            throw new IllegalArgumentException("Invalid Crowd application credentials", ae);
+        }
+        Header accept = new BasicHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_XML);
+        Header acceptCharset = new BasicHeader(HttpHeaders.ACCEPT_CHARSET, "UTF-8");
+        if (compression) {
+            Header acceptEncoding = new BasicHeader(HttpHeaders.ACCEPT_ENCODING, "gzip,deflate");
+            headers = new Header[] { accept, acceptCharset, acceptEncoding, authorization };
+        } else {
+            headers = new Header[] { accept, acceptCharset, authorization };
+        }
+    }
+
+    /**
+     * @param pathAndQuery relative to the REST base URL, parameters already encoded
+     * @return a GET request with the standard headers
+     */
+    HttpGet get(CharSequence pathAndQuery) {
+        return withHeaders(new HttpGet(uri(pathAndQuery)));
+    }
+
+    /**
+     * @param pathAndQuery relative to the REST base URL, parameters already encoded
+     * @return a POST request with the standard headers
+     */
+    HttpPost post(CharSequence pathAndQuery) {
+        return withHeaders(new HttpPost(uri(pathAndQuery)));
+    }
+
+    private URI uri(CharSequence pathAndQuery) {
+        return URI.create(new StringBuilder(base.length() + pathAndQuery.length()).append(base).append(pathAndQuery).toString());
+    }
+
+    private <T extends HttpRequestBase> T withHeaders(T method) {
+        method.setHeaders(headers);
+        return method;
+    }
+}
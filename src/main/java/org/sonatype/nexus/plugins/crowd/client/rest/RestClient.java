@@ -13,17 +13,24 @@ package org.sonatype.nexus.plugins.crowd.client.rest;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
-import javax.ws.rs.core.MediaType;
-import javax.xml.bind.JAXB;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
@@ -31,27 +38,17 @@ import javax.xml.bind.helpers.DefaultValidationEventHandler;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.AuthenticationException;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,10 +58,15 @@ import org.sonatype.nexus.plugins.crowd.client.rest.jaxb.GroupResponse;
 import org.sonatype.nexus.plugins.crowd.client.rest.jaxb.GroupsResponse;
 import org.sonatype.nexus.plugins.crowd.client.rest.jaxb.SearchUserGetResponse;
 import org.sonatype.nexus.plugins.crowd.client.rest.jaxb.UserResponse;
+import org.sonatype.nexus.plugins.crowd.config.ConfigurationListener;
 import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
 import org.sonatype.nexus.security.role.Role;
 import org.sonatype.nexus.security.user.User;
 import org.sonatype.nexus.security.user.UserStatus;
+import com.codahale.metrics.Meter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.FlightRecorder;
 
 /**
  * @author Issa Gorissen
@@ -72,71 +74,342 @@ import org.sonatype.nexus.security.user.UserStatus;
 public class RestClient {
     private static final Logger LOG = LoggerFactory.getLogger(RestClient.class);
     private static final String UTF8 = "UTF-8";
-
-    private HttpClient client;
-    private Credentials crowdCreds;
-    private URI crowdServer;
-    private PoolingHttpClientConnectionManager cm;
+    private static final Map<Class<?>, JAXBContext> JAXB_CONTEXTS = new ConcurrentHashMap<>();
+    private static final Class<?>[] JAXB_TYPES = { AuthenticatePost.class, UserResponse.class, GroupsResponse.class,
+            SearchUserGetResponse.class, ConfigCookieGetResponse.class };
+
+    private final CrowdPluginConfiguration config;
+    // built on first use or by the warm-up, whichever comes first; guarded by this for writes
+    private volatile HttpTransport transport;
+    private boolean closed;
+    private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+    private final CompletableFuture<Void> warmUp = new CompletableFuture<>();
+    private volatile UsernameCanonicalizer canonicalizer;
+    private final AdmissionController admission;
+    private volatile GroupProjection projection;
+    private final RetryPolicy retry;
+    private volatile int interactiveDeadline;
+    private volatile int bulkDeadline;
+    private volatile long slowCallThreshold;
+    private final CrowdMetrics metrics;
+    private final MappedGroups mappedGroups;
+    private final PageSizer nestedGroupPages;
+    private final PageSizer userSearchPages;
+    private final PageSizer groupSearchPages;
+    private final Runnable poolOccupancy = this::emitPoolOccupancy;
+    private final ConfigurationListener configurationListener = this::reconfigure;
+    private final Meter canonicalized;
     
-    RestClient(CrowdPluginConfiguration config) throws URISyntaxException {
-        crowdServer = new URI(config.getCrowdServerUrl()).resolve("rest/usermanagement/1/");
-
-        crowdCreds = new UsernamePasswordCredentials(config.getApplicationName(), config.getApplicationPassword());
-
-        // configure the http client
-        RequestConfig.Builder reqConfigBuilder = RequestConfig.custom()
-                .setAuthenticationEnabled(true)
-                .setConnectTimeout(config.getHttpTimeout())
-                .setSocketTimeout(config.getHttpTimeout());
-
-        cm = new PoolingHttpClientConnectionManager();
-        cm.setMaxTotal(config.getHttpMaxConnections());
-        cm.setDefaultMaxPerRoute(config.getHttpMaxConnections());
-
-        // proxy settings
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        if (StringUtils.isNotBlank(config.getHttpProxyHost()) && config.getHttpProxyPort() > 0) {
-            HttpHost proxy = new HttpHost(config.getHttpProxyHost(), config.getHttpProxyPort());
-            reqConfigBuilder.setProxy(proxy);
-
-            if (config.getHttpProxyUsername() != null && config.getHttpProxyPassword() != null) {
-                credsProvider.setCredentials(
-                        new AuthScope(proxy),
-                        new UsernamePasswordCredentials(config.getHttpProxyUsername(), config.getHttpProxyPassword()));
+    RestClient(CrowdPluginConfiguration config, CrowdMetrics metrics, MappedGroups mappedGroups) {
+        this.config = config;
+        this.metrics = metrics;
+        this.mappedGroups = mappedGroups;
+        projection = new GroupProjection(config);
+        retry = new RetryPolicy(config, metrics);
+        interactiveDeadline = config.getInteractiveDeadline();
+        bulkDeadline = config.getBulkDeadline();
+        slowCallThreshold = TimeUnit.MILLISECONDS.toNanos(config.getSlowCallThreshold());
+        canonicalizer = new UsernameCanonicalizer(config.isUsernameCaseSensitive(), config.isUsernameTrimmed());
+        admission = new AdmissionController(config, metrics);
+        canonicalized = metrics.getRegistry().meter(CrowdMetrics.PREFIX + "usernames.canonicalized");
+
+        nestedGroupPages = new PageSizer(100, true, config);
+        userSearchPages = new PageSizer(1000, false, config);
+        groupSearchPages = new PageSizer(1000, false, config);
+        metrics.getRegistry().gauge(CrowdMetrics.PREFIX + "page.nestedGroups.size", () -> nestedGroupPages::next);
+        metrics.getRegistry().gauge(CrowdMetrics.PREFIX + "page.userSearch.size", () -> userSearchPages::next);
+        metrics.getRegistry().gauge(CrowdMetrics.PREFIX + "page.groupSearch.size", () -> groupSearchPages::next);
+
+        for (RequestClass requestClass : RequestClass.values()) {
+            String prefix = HttpTransport.metricsPrefix(requestClass);
+            metrics.getRegistry().gauge(prefix + ".leased", () -> () -> poolStats(requestClass).getLeased());
+            metrics.getRegistry().gauge(prefix + ".available", () -> () -> poolStats(requestClass).getAvailable());
+            metrics.getRegistry().gauge(prefix + ".pending", () -> () -> poolStats(requestClass).getPending());
+            metrics.getRegistry().gauge(prefix + ".max", () -> () -> poolStats(requestClass).getMax());
+        }
+
+        FlightRecorder.addPeriodicEvent(PoolOccupancyEvent.class, poolOccupancy);
+    }
+
+    /**
+     * Starts applying configuration changes. Called once constructed, subclasses included, so that a
+     * reload never reaches a partly constructed client.
+     */
+    @PostConstruct
+    public void start() {
+        config.addListener(configurationListener);
+    }
+
+    /**
+     * Releases the connections to Crowd and stops the background threads.
+     */
+    @PreDestroy
+    public void close() {
+        config.removeListener(configurationListener);
+        FlightRecorder.removePeriodicEvent(poolOccupancy);
+        HttpTransport t;
+        synchronized (this) {
+            closed = true;
+            t = transport;
+            transport = null;
+        }
+        if (t != null) {
+            t.close();
+        }
+    }
+
+    /**
+     * @return the HTTP client to Crowd, built on first use
+     * @throws RestException if the plugin is not configured or the client is closed
+     */
+    private HttpTransport transport() throws RestException {
+        HttpTransport t = transport;
+        if (t != null) {
+            return t;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new RestException("Crowd client is closed");
+            }
+            if (transport == null) {
+                // a reload changes the live configuration one value at a time
+                CrowdPluginConfiguration snapshot = config.getSnapshot();
+                if (snapshot.getCrowdServerUrl() == null) {
+                    throw new RestException("Crowd plugin is not configured, see crowd-plugin.properties");
+                }
+                try {
+                    transport = new HttpTransport(snapshot, metrics);
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    throw new RestException("Invalid Crowd plugin configuration", e);
+                }
             }
+            return transport;
         }
+    }
 
-        RequestConfig reqConfig = reqConfigBuilder.build();
-        HttpClientBuilder hcBuilder = HttpClients.custom()
-                .setMaxConnPerRoute(config.getHttpMaxConnections())
-                .setMaxConnTotal(config.getHttpMaxConnections())
-                .setConnectionManager(cm)
-                .setDefaultCredentialsProvider(credsProvider)
-                .setDefaultRequestConfig(reqConfig);
+    /**
+     * Runs <code>operation</code> on the current transport. Once started, the operation keeps its
+     * transport until its last page even if a configuration change swaps it out meanwhile.
+     */
+    private <T> T onTransport(TransportCall<T> operation) throws RestException {
+        while (true) {
+            HttpTransport t = transport();
+            if (t.acquire()) {
+                try {
+                    return operation.call(t);
+                } finally {
+                    t.release();
+                }
+            }
+            // swapped out between the read and the acquire, the current transport is already set
+        }
+    }
 
+    private PoolStats poolStats(RequestClass requestClass) {
+        HttpTransport t = transport;
+        return t == null ? new PoolStats(0, 0, 0, 0) : t.stats(requestClass);
+    }
 
-        client = hcBuilder.build();
+    /**
+     * Starts preparing in the background what the first requests would otherwise pay for: the JAXB
+     * contexts, the HTTP client with its pre-warmed connections, and what {@link #preload()} loads.
+     * Requests are served meanwhile, initializing what they need themselves. Only the first call
+     * starts the warm-up.
+     *
+     * @return completed once warm, exceptionally if a step failed
+     */
+    public CompletableFuture<Void> warmUp() {
+        if (warmUpStarted.compareAndSet(false, true)) {
+            Thread thread = new Thread(this::runWarmUp, "crowd-plugin-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return warmUp;
+    }
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("HTTP Client config");
-            LOG.debug(config.getCrowdServerUrl());
-            LOG.debug("PROPERTY_THREADPOOL_SIZE:" + cm.getMaxTotal());
-            LOG.debug("PROPERTY_READ_TIMEOUT:" + reqConfig.getSocketTimeout());
-            LOG.debug("PROPERTY_CONNECT_TIMEOUT:" + reqConfig.getConnectTimeout());
-            if (reqConfig.getProxy() != null) {
-                LOG.debug("PROPERTY_PROXY_URI:" + reqConfig.getProxy().toString());
+    private void runWarmUp() {
+        long start = System.nanoTime();
+        try {
+            for (Class<?> type : JAXB_TYPES) {
+                jaxbContext(type);
             }
-            LOG.debug("Crowd application name:" + config.getApplicationName());
+            onTransport(t -> {
+                prewarm(t, config.getSnapshot());
+                return null;
+            });
+            RequestClass.BACKGROUND.run(() -> {
+                preload();
+                return null;
+            });
+        } catch (JAXBException | RestException | RuntimeException e) {
+            LOG.warn("Crowd client warm-up incomplete, requests will initialize what is missing: {}", e.toString());
+            warmUp.completeExceptionally(e);
+            return;
         }
+        LOG.info("Crowd client warmed up in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        warmUp.complete(null);
     }
-    
-    
 
-    @Override
-    protected void finalize() throws Throwable {
-        cm.close();
+    /**
+     * Loads, during the warm-up, what the first requests need. Nothing by default.
+     *
+     * @throws RestException
+     */
+    protected void preload() throws RestException {
     }
 
+    private void emitPoolOccupancy() {
+        HttpTransport t = transport;
+        if (t == null) {
+            return;
+        }
+        for (RequestClass requestClass : RequestClass.values()) {
+            PoolStats stats = t.stats(requestClass);
+            PoolOccupancyEvent event = new PoolOccupancyEvent();
+            event.requestClass = requestClass.name();
+            event.leased = stats.getLeased();
+            event.available = stats.getAvailable();
+            event.pending = stats.getPending();
+            event.max = stats.getMax();
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Applies a configuration change. The HTTP client and its pool are only rebuilt when a setting
+     * they depend on changed; the previous pool is drained in the background once swapped out.
+     * 
+     * @param previous
+     * @param current
+     */
+    protected void reconfigure(CrowdPluginConfiguration previous, CrowdPluginConfiguration current) {
+        canonicalizer = new UsernameCanonicalizer(current.isUsernameCaseSensitive(), current.isUsernameTrimmed());
+        // resized in place, requests admitted and retries spent before keep counting
+        admission.configure(current);
+        projection = new GroupProjection(current);
+        retry.configure(current);
+        interactiveDeadline = current.getInteractiveDeadline();
+        bulkDeadline = current.getBulkDeadline();
+        slowCallThreshold = TimeUnit.MILLISECONDS.toNanos(current.getSlowCallThreshold());
+        nestedGroupPages.configure(current);
+        userSearchPages.configure(current);
+        groupSearchPages.configure(current);
+
+        if (!HttpTransport.isAffected(previous, current)) {
+            return;
+        }
+        synchronized (this) {
+            if (transport == null || closed) {
+                // built on first use, from the configuration then in effect
+                return;
+            }
+        }
+        if (current.getCrowdServerUrl() == null) {
+            LOG.error("Crowd server URL removed from the configuration, keeping the current HTTP client");
+            return;
+        }
+
+        HttpTransport next;
+        try {
+            next = new HttpTransport(current, metrics);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            LOG.error("Invalid Crowd plugin configuration, keeping the current HTTP client", e);
+            return;
+        }
+
+        prewarm(next, current);
+        HttpTransport old;
+        synchronized (this) {
+            if (closed) {
+                next.close();
+                return;
+            }
+            old = transport;
+            transport = next;
+        }
+        LOG.info("HTTP client to Crowd rebuilt after a configuration change");
+
+        // let in-flight operations finish on the old pool, every page of them
+        long maxWait = drainTimeout(previous, current);
+        Thread drainer = new Thread(() -> old.drain(maxWait), "crowd-plugin-pool-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+
+    /**
+     * @return how long operations started before a swap of the transport may keep running on the
+     *         old one: their deadline, or as long as they run when they have none
+     */
+    private static long drainTimeout(CrowdPluginConfiguration previous, CrowdPluginConfiguration current) {
+        long deadline = 0;
+        for (CrowdPluginConfiguration config : new CrowdPluginConfiguration[] { previous, current }) {
+            if (config.getInteractiveDeadline() == 0 || config.getBulkDeadline() == 0) {
+                return Long.MAX_VALUE;
+            }
+            deadline = Math.max(deadline, Math.max(config.getInteractiveDeadline(), config.getBulkDeadline()));
+        }
+        // the abort of a request at its deadline takes a little time to reach the operation
+        return deadline + Math.max(previous.getHttpTimeout(), 1000);
+    }
+
+    private static void prewarm(HttpTransport t, CrowdPluginConfiguration config) {
+        int count = config.getHttpPrewarmConnections();
+        if (count > 0) {
+            LOG.info("Pre-warmed {} of {} connections to Crowd", t.prewarm(count), count);
+        }
+    }
+
+
+    /**
+     * Registers a listener notified when cached groups of users are discarded. This client caches
+     * nothing and never notifies it.
+     * 
+     * @param listener
+     */
+    public void addCacheInvalidationListener(CacheInvalidationListener listener) {
+    }
+
+    /**
+     * @return a count of the invalidations made on this node, read before a lookup so that what is
+     *         derived from its result can be dropped if an invalidation happened meanwhile. This
+     *         client caches nothing and always returns 0.
+     */
+    public long invalidationGeneration() {
+        return 0;
+    }
+
+    /**
+     * Drops what is cached about a user, on this node and on the other Nexus nodes. This client
+     * caches nothing.
+     * 
+     * @param username
+     */
+    public void invalidate(String username) {
+    }
+
+    /**
+     * Drops everything cached, on this node and on the other Nexus nodes. This client caches nothing.
+     */
+    public void invalidateAll() {
+    }
+
+
+    /**
+     * Called by the realm and the managers with the username as they got it, which is where the
+     * usernames rewritten to share cache entries and Crowd requests are counted.
+     * 
+     * @param username
+     * @return the username in the form configured to match the Crowd directory
+     */
+    public String canonicalUsername(String username) {
+        String canonical = canonicalizer.canonicalize(username);
+        if (canonical != null && !canonical.equals(username)) {
+            canonicalized.mark();
+        }
+        return canonical;
+    }
 
 
     /**
@@ -148,8 +421,14 @@ public class RestClient {
      * @throws RestException
      */
     public void authenticate(String username, String password) throws RestException {
-        HttpClientContext hc = HttpClientContext.create();
-        HttpPost post = new HttpPost(crowdServer.resolve("authentication?username=" + urlEncode(username)));
+        Deadline.within(interactiveDeadline, () -> onTransport(t -> {
+            sendAuthentication(t, username, password);
+            return null;
+        }));
+    }
+
+    private void sendAuthentication(HttpTransport t, String username, String password) throws RestException {
+        HttpPost post = t.templates.post(new StringBuilder(RequestTemplates.AUTHENTICATION).append(urlEncode(username)));
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("authentication attempt for '{}'", username);
@@ -158,20 +437,29 @@ public class RestClient {
 
         AuthenticatePost creds = new AuthenticatePost();
         creds.value = password;
-        try {
-            acceptXmlResponse(post);
+        ScheduledFuture<?> abort = null;
+        CrowdCallEvent event = new CrowdCallEvent();
+        event.begin();
+        HttpClientContext context = HttpClientContext.create();
+        CallTiming timing = startTiming(context);
+        int status = -1;
+        RequestClass requestClass = RequestClass.INTERACTIVE;
+        try (AdmissionController.Permit permit = admit(requestClass)) {
+            admitted(timing);
+            requestClass = permit.getRequestClass();
+            abort = bound(t, requestClass, post);
             StringWriter writer = new StringWriter();
-            JAXB.marshal(creds, writer);
+            marshal(creds, writer);
             
             StringEntity strEntity = new StringEntity(writer.toString(),
                     ContentType.APPLICATION_XML.withCharset(UTF8));
             
             post.setEntity(strEntity);
 
-            enablePreemptiveAuth(post, hc);
-            HttpResponse response = client.execute(post);
+            HttpResponse response = t.client(requestClass).execute(post, context);
+            status = response.getStatusLine().getStatusCode();
             
-            switch (response.getStatusLine().getStatusCode()) {
+            switch (status) {
               case HttpURLConnection.HTTP_OK:
                 return;
               
@@ -182,10 +470,14 @@ public class RestClient {
                 handleError(createRestException(response));
             }
 
-        } catch (IOException | AuthenticationException ioe) {
+        } catch (IOException | JAXBException ioe) {
+            checkDeadline(ioe);
             handleError(ioe);
         } finally {
+            cancel(abort);
             post.releaseConnection();
+            commit(event, RequestTemplates.AUTHENTICATION, requestClass, status, context, 0, 1);
+            logIfSlow(timing, RequestTemplates.AUTHENTICATION, requestClass, status, 0, 1);
         }
     }
 
@@ -202,14 +494,10 @@ public class RestClient {
             LOG.debug("getNestedGroups({})", username);
         }
 
-        HttpClientContext hc = HttpClientContext.create();
-        int maxResults = 100;
-        int startIndex = 0;
-        StringBuilder request = new StringBuilder("user/group/nested?username=").append(urlEncode(username))
-                .append("&max-results=").append(maxResults)
-                .append("&start-index=");
+        StringBuilder request = new StringBuilder(RequestTemplates.NESTED_GROUPS).append(urlEncode(username));
 
-        return getGroupsFromCrowdLoop(hc, request, startIndex, maxResults);
+        return Deadline.within(interactiveDeadline, () -> onTransport(t -> getGroupsFromCrowdLoop(t, RequestClass.INTERACTIVE,
+                projection.forNestedGroups(mappedGroups), request, nestedGroupPages, username)));
     }
 
 
@@ -220,29 +508,12 @@ public class RestClient {
      * @throws RestException
      */
     public ConfigCookieGetResponse getCookieConfig() throws RestException {
-        HttpClientContext hc = HttpClientContext.create();
-        HttpGet get = new HttpGet(crowdServer.resolve("config/cookie"));
-
         if (LOG.isDebugEnabled()) {
             LOG.debug("ConfigCookieGetResponse getCookieConfig()");
-            LOG.debug(get.getURI().toString());
-        }
-
-        ConfigCookieGetResponse configCookie = null;
-        try {
-            enablePreemptiveAuth(acceptXmlResponse(get), hc);
-            HttpResponse response = client.execute(get);
-            if (response.getStatusLine().getStatusCode() != 200) {
-                handleError(createRestException(response));
-            }
-            configCookie = unmarshal(response, ConfigCookieGetResponse.class);
-
-        } catch (IOException | JAXBException | AuthenticationException ioe) {
-            handleError(ioe);
-        } finally {
-            get.releaseConnection();
         }
 
+        ConfigCookieGetResponse configCookie = Deadline.within(interactiveDeadline,
+                () -> onTransport(t -> read(t, RequestClass.INTERACTIVE, RequestTemplates.COOKIE_CONFIG, 0, ConfigCookieGetResponse.class)));
         return Objects.requireNonNull(configCookie);
     }
 
@@ -253,38 +524,13 @@ public class RestClient {
      * @throws RestException
      */
     public User getUser(String userid) throws RestException {
-        HttpClientContext hc = HttpClientContext.create();
-        HttpGet get = new HttpGet(crowdServer.resolve("user?username=" + urlEncode(userid)));
-
         if (LOG.isDebugEnabled()) {
             LOG.debug("getUser({})", userid);
-            LOG.debug(get.getURI().toString());
-        }
-
-        UserResponse user = null;
-        try {
-            enablePreemptiveAuth(acceptXmlResponse(get), hc);
-            HttpResponse response = client.execute(get);
-            
-            switch(response.getStatusLine().getStatusCode()) {
-                case HttpURLConnection.HTTP_OK:
-                    break;
-                  
-                  case HttpURLConnection.HTTP_NOT_FOUND:
-                    throw createRestException(response);
-                  
-                  default:
-                    handleError(createRestException(response));
-            }
-
-            user = unmarshal(response, UserResponse.class);
-
-        } catch (IOException | JAXBException | AuthenticationException ioe) {
-            handleError(ioe);
-        } finally {
-            get.releaseConnection();
         }
 
+        StringBuilder request = new StringBuilder(RequestTemplates.USER).append(urlEncode(userid));
+        UserResponse user = Deadline.within(interactiveDeadline,
+                () -> onTransport(t -> read(t, RequestClass.INTERACTIVE, request, 0, UserResponse.class)));
         return Objects.requireNonNull(convertUser(user));
     }
 
@@ -302,64 +548,52 @@ public class RestClient {
     public Set<User> searchUsers(String userId) throws RestException {
         LOG.debug("searchUsers({})", userId);
 
-        HttpClientContext hc = HttpClientContext.create();
-        int maxResults = 1000;
-
         if (StringUtils.isNotEmpty(userId)) {
-            StringBuilder request = new StringBuilder("search?entity-type=user&max-results=").append(maxResults).append("&restriction=");
+            StringBuilder request = new StringBuilder(RequestTemplates.SEARCH_USERS);
 
             StringBuilder searchQuery = new StringBuilder("active=true");
             searchQuery.append(" AND name=\"").append(userId.trim()).append("*\"");
 
-            request.append(urlEncode(searchQuery.toString())).append("&start-index=");
+            request.append(urlEncode(searchQuery.toString()));
 
-
-            int startIndex = 0;
             Set<User> result = new HashSet<>();
             try {
-                while (true) {
-                    HttpGet get = enablePreemptiveAuth(acceptXmlResponse(new HttpGet(crowdServer.resolve(request.toString() + startIndex))), hc);
-                    SearchUserGetResponse users = null;
-
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug(get.getURI().toString());
-                    }
-
-                    try {
-                        HttpResponse response = client.execute(get);
-                        if (response.getStatusLine().getStatusCode() != 200) {
-                            handleError(createRestException(response));
-                        }
-                        users = unmarshal(response, SearchUserGetResponse.class);
-                    } finally {
-                        get.releaseConnection();
-                    }
-
-                    if (users != null && users.user != null) {
-                        for (UserResponse user : users.user) {
-                            result.add(getUser(user.name));
-                        }
+                Deadline.within(bulkDeadline, () -> onTransport(t -> searchUsersLoop(t, request, result)));
+            } catch (DeadlineExceededException dee) {
+                // a search is only a hint for the administrator, what was found so far is still useful
+                LOG.warn("User search for '{}' ran out of time, returning the {} users found so far", userId, result.size());
+            }
 
-                        if (users.user.size() != maxResults) {
-                            break;
-                        }
+            return result;
+        }
 
-                        startIndex += maxResults;
+        return Collections.emptySet();
+    }
 
-                    } else {
-                        break;
-                    }
+    private Set<User> searchUsersLoop(HttpTransport t, StringBuilder request, Set<User> result) throws RestException {
+        int prefixLength = request.length();
+        int startIndex = 0;
+        for (int page = 0;; page++) {
+            int pageSize = userSearchPages.next();
+            request.setLength(prefixLength);
+            appendPage(request, pageSize, startIndex);
+            long start = System.nanoTime();
+            SearchUserGetResponse users = read(t, RequestClass.BULK, request, page, SearchUserGetResponse.class);
+            int returned = users == null || users.user == null ? 0 : users.user.size();
+            userSearchPages.observe(pageSize, returned, System.nanoTime() - start);
+
+            if (returned > 0) {
+                for (UserResponse user : users.user) {
+                    result.add(RequestClass.BULK.run(() -> getUser(user.name)));
                 }
-
-            } catch (IOException | JAXBException | AuthenticationException ioe) {
-                handleError(ioe);
             }
 
-
-            return result;
+            if (returned < pageSize) {
+                break;
+            }
+            startIndex += returned;
         }
-
-        return Collections.emptySet();
+        return result;
     }
 
 
@@ -373,15 +607,12 @@ public class RestClient {
             LOG.debug("getAllGroups()");
         }
 
-        HttpClientContext hc = HttpClientContext.create();
-        int maxResults = 1000;
-        int startIndex = 0;
         Set<Role> results = new HashSet<>();
-        StringBuilder request = new StringBuilder("search?entity-type=group&expand=group&restriction=active%3dtrue")
-        .append("&max-results=").append(maxResults)
-        .append("&start-index=");
+        StringBuilder request = new StringBuilder(RequestTemplates.SEARCH_GROUPS);
 
-        Set<String> roleIds = getGroupsFromCrowdLoop(hc, request, startIndex, maxResults);
+        // partial results would be cached as the whole catalog, so running out of time is a failure
+        Set<String> roleIds = Deadline.within(bulkDeadline,
+                () -> onTransport(t -> getGroupsFromCrowdLoop(t, RequestClass.BULK, projection, request, groupSearchPages, null)));
         for (String roleId : roleIds) {
             results.add(new Role(roleId, roleId, "", "", true, null, null));
         }
@@ -397,63 +628,213 @@ public class RestClient {
 
 
 
-    private Set<String> getGroupsFromCrowdLoop(HttpClientContext hc, StringBuilder request, int start, int maxResults) throws RestException {
+    /**
+     * @param hintKey key under which the number of groups is remembered to size the first page, or null
+     */
+    private Set<String> getGroupsFromCrowdLoop(HttpTransport t, RequestClass requestClass, Predicate<String> filter, StringBuilder request,
+            PageSizer pages, String hintKey) throws RestException {
         Set<String> results = new HashSet<>();
-        try {
-            int startIndex = start;
-            while (true) {
-                HttpGet get = enablePreemptiveAuth(acceptXmlResponse(new HttpGet(crowdServer.resolve(request.toString() + startIndex))), hc);
-                GroupsResponse groups = null;
-
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(get.getURI().toString());
+        int prefixLength = request.length();
+        int startIndex = 0;
+        int pageSize = hintKey == null ? pages.next() : pages.first(hintKey);
+        for (int page = 0;; page++) {
+            request.setLength(prefixLength);
+            appendPage(request, pageSize, startIndex);
+            long start = System.nanoTime();
+            GroupsResponse groups = read(t, requestClass, request, page, GroupsResponse.class);
+            int returned = groups == null || groups.group == null ? 0 : groups.group.size();
+            pages.observe(pageSize, returned, System.nanoTime() - start);
+
+            if (returned > 0) {
+                for (GroupResponse group : groups.group) {
+                    if (filter.test(group.name)) {
+                        results.add(group.name);
+                    }
                 }
+            }
 
-                try {
-                    HttpResponse response = client.execute(get);
-                    
-                    switch(response.getStatusLine().getStatusCode()) {
-                        case HttpURLConnection.HTTP_OK:
-                            break;
-                        
-                        case HttpURLConnection.HTTP_NOT_FOUND:
-                            throw createRestException(response);
-                        
-                        default:
-                            handleError(createRestException(response));
-                    }
+            startIndex += returned;
+            if (returned < pageSize) {
+                break;
+            }
+            pageSize = pages.next();
+        }
+        if (hintKey != null) {
+            pages.remember(hintKey, startIndex);
+        }
 
-                    groups = unmarshal(response, GroupsResponse.class);
-                    
-                } finally {
-                    get.releaseConnection();
-                }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("returning %d groups", results.size()));
+        }
 
-                if (groups != null && groups.group != null) {
-                    for (GroupResponse group : groups.group) {
-                        results.add(group.name);
-                    }
+        return results;
+    }
 
-                    if (groups.group.size() != maxResults) {
-                        break;
-                    }
-                    
-                    startIndex += maxResults;
+    private static void appendPage(StringBuilder request, int pageSize, int startIndex) {
+        request.append("&max-results=").append(pageSize).append("&start-index=").append(startIndex);
+    }
+
+    /**
+     * GETs an XML document from Crowd. Reads are idempotent, so I/O errors and 502, 503 or 504
+     * responses are retried as the retry policy allows; a 404 is reported as is.
+     */
+    private <T> T read(HttpTransport t, RequestClass requestClass, CharSequence pathAndQuery, int page, Class<T> type) throws RestException {
+        retry.requested();
+        for (int attempt = 1;; attempt++) {
+            HttpGet get = t.templates.get(pathAndQuery);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(get.getURI().toString());
+            }
 
-                } else {
-                    break;
+            Exception failure;
+            ScheduledFuture<?> abort = null;
+            CrowdCallEvent event = new CrowdCallEvent();
+            event.begin();
+            HttpClientContext context = HttpClientContext.create();
+            CallTiming timing = startTiming(context);
+            int status = -1;
+            RequestClass effective = requestClass;
+            try (AdmissionController.Permit permit = admit(requestClass)) {
+                admitted(timing);
+                effective = permit.getRequestClass();
+                abort = bound(t, effective, get);
+                HttpResponse response = t.client(effective).execute(get, context);
+                status = response.getStatusLine().getStatusCode();
+                if (status == HttpURLConnection.HTTP_OK) {
+                    return unmarshal(response, type, timing);
+                }
+                RestException re = createRestException(response);
+                if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    throw re;
                 }
+                if (!RetryPolicy.isRetryable(status) || !retry.allowRetry(attempt)) {
+                    handleError(re);
+                }
+                failure = re;
+            } catch (IOException | JAXBException e) {
+                checkDeadline(e);
+                if (!RetryPolicy.isRetryable(e) || !retry.allowRetry(attempt)) {
+                    handleError(e);
+                }
+                failure = e;
+            } finally {
+                cancel(abort);
+                get.releaseConnection();
+                commit(event, pathAndQuery, effective, status, context, page, attempt);
+                logIfSlow(timing, pathAndQuery, effective, status, page, attempt);
             }
 
-        } catch (IOException | JAXBException | AuthenticationException ioe) {
-            handleError(ioe);
+            LOG.debug("attempt {} of a read from Crowd failed, retrying: {}", attempt, failure.getMessage());
+            try {
+                retry.backoff(attempt);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                handleError(failure);
+            }
         }
+    }
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug(String.format("returning %d groups", results.size()));
+    /**
+     * @return the timing of a request sent with <code>context</code>, null when slow calls are not logged
+     */
+    private CallTiming startTiming(HttpClientContext context) {
+        if (slowCallThreshold == 0) {
+            return null;
         }
+        CallTiming timing = new CallTiming();
+        timing.attach(context);
+        return timing;
+    }
 
-        return results;
+    private static void admitted(CallTiming timing) {
+        if (timing != null) {
+            timing.admission = System.nanoTime() - timing.start;
+        }
+    }
+
+    /**
+     * Logs the phases of a request that took longer than the threshold.
+     */
+    private void logIfSlow(CallTiming timing, CharSequence pathAndQuery, RequestClass requestClass, int status, int page, int attempt) {
+        if (timing == null) {
+            return;
+        }
+        long total = timing.finish();
+        long threshold = slowCallThreshold;
+        if (threshold > 0 && total > threshold) {
+            LOG.warn("Slow Crowd call to {} took {} ms ({} request, status {}, page {}, attempt {}, cache {}): {}",
+                    CrowdCallEvent.endpoint(pathAndQuery), TimeUnit.NANOSECONDS.toMillis(total), requestClass, status,
+                    page, attempt, CallTiming.cacheState(), timing);
+        }
+    }
+
+    /**
+     * Records <code>event</code> if the flight recorder wants it; nothing is computed otherwise.
+     */
+    private static void commit(CrowdCallEvent event, CharSequence pathAndQuery, RequestClass requestClass, int status,
+            HttpClientContext context, int page, int attempt) {
+        event.end();
+        if (event.shouldCommit()) {
+            AtomicLong bytes = (AtomicLong) context.getAttribute(ContentDecoding.BYTES_ON_WIRE);
+            event.endpoint = CrowdCallEvent.endpoint(pathAndQuery);
+            event.requestClass = requestClass.name();
+            event.status = status;
+            event.poolWait = InstrumentedConnectionManager.lastLeaseWait();
+            event.bytes = bytes == null ? 0 : bytes.get();
+            event.page = page;
+            event.attempt = attempt;
+            event.commit();
+        }
+    }
+
+    /**
+     * Bounds <code>request</code> by the deadline of the current operation: its timeouts are
+     * shortened to the time left, and it is aborted if still running when the deadline passes.
+     * 
+     * @return the scheduled abort, to cancel once the response is consumed; null without deadline
+     * @throws DeadlineExceededException if the deadline already passed
+     */
+    private static ScheduledFuture<?> bound(HttpTransport t, RequestClass requestClass, HttpRequestBase request) throws DeadlineExceededException {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return null;
+        }
+        long remainingNanos = deadline.remaining(TimeUnit.NANOSECONDS);
+        if (remainingNanos <= 0) {
+            throw new DeadlineExceededException("Operation toward Crowd ran out of time");
+        }
+        // rounded up: a timeout or abort firing before the deadline would not be reported as exceeded
+        long remaining = TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+
+        RequestConfig defaults = t.requestConfig(requestClass);
+        int limit = (int) Math.min(remaining, Integer.MAX_VALUE);
+        request.setConfig(RequestConfig.copy(defaults)
+                .setConnectTimeout(Math.min(defaults.getConnectTimeout(), limit))
+                .setSocketTimeout(Math.min(defaults.getSocketTimeout(), limit))
+                .setConnectionRequestTimeout(Math.min(defaults.getConnectionRequestTimeout(), limit))
+                .build());
+        return t.schedule(request::abort, remaining, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancel(ScheduledFuture<?> abort) {
+        if (abort != null) {
+            abort.cancel(false);
+        }
+    }
+
+    /**
+     * @throws DeadlineExceededException if <code>e</code> happened because the current operation ran out of time
+     */
+    private static void checkDeadline(Exception e) throws DeadlineExceededException {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            LOG.debug("Operation toward Crowd ran out of time: {}", e.getMessage());
+            throw new DeadlineExceededException("Operation toward Crowd ran out of time", e);
+        }
+    }
+
+    private AdmissionController.Permit admit(RequestClass natural) throws RequestRejectedException {
+        return admission.acquire(RequestClass.effective(natural));
     }
 
     private static String urlEncode(String str) {
@@ -476,21 +857,36 @@ public class RestClient {
         return user;
     }
 
-    private static <T extends HttpRequestBase> T acceptXmlResponse(T method) {
-        method.addHeader("Accept", MediaType.APPLICATION_XML);
-        method.addHeader("Accept-Charset", UTF8);
-        return method;
+    private static JAXBContext jaxbContext(Class<?> type) throws JAXBException {
+        // contexts are thread safe and expensive to create, marshallers are neither
+        JAXBContext context = JAXB_CONTEXTS.get(type);
+        if (context == null) {
+            context = JAXBContext.newInstance(type);
+            JAXB_CONTEXTS.putIfAbsent(type, context);
+        }
+        return context;
     }
 
-    private <T extends HttpRequestBase> T enablePreemptiveAuth(T method, HttpClientContext hcc) throws AuthenticationException {
-        HttpClientContext localContext = HttpClientContext.adapt(hcc);
-        method.addHeader(new BasicScheme().authenticate(crowdCreds, method, localContext));
-        return method;
+    private static void marshal(Object value, Writer writer) throws JAXBException {
+        jaxbContext(value.getClass()).createMarshaller().marshal(value, writer);
+    }
+
+    private static <T> T unmarshal(HttpResponse response, Class<T> type, CallTiming timing) throws JAXBException, IOException {
+        if (timing == null) {
+            return unmarshal(response, type);
+        }
+        // the body is read while it is unmarshalled, the time blocked reading is counted apart
+        long transfer = timing.transfer;
+        long start = System.nanoTime();
+        try {
+            return unmarshal(response, type);
+        } finally {
+            timing.unmarshal += System.nanoTime() - start - (timing.transfer - transfer);
+        }
     }
 
     private static <T> T unmarshal(HttpResponse response, Class<T> type) throws JAXBException, IOException {
-        JAXBContext jaxbC = JAXBContext.newInstance(type);
-        Unmarshaller um = jaxbC.createUnmarshaller();
+        Unmarshaller um = jaxbContext(type).createUnmarshaller();
         um.setEventHandler(new DefaultValidationEventHandler());
         return um.unmarshal(new StreamSource(response.getEntity().getContent()), type).getValue();
     }
@@ -515,11 +911,24 @@ public class RestClient {
             strBuf.append("\n").append(body);
         }
 
-        return new RestException(strBuf.toString());
+        return new RestException(strBuf.toString(), status);
     }
 
     private static void handleError(Exception e) throws RestException {
+        if (e instanceof ConnectionPoolTimeoutException) {
+            // not an error of Crowd: fail fast and let the caller fall back to what it knows
+            LOG.warn("No connection to Crowd available: {}", e.getMessage());
+            throw new PoolExhaustedException("No connection to Crowd available within the lease timeout", e);
+        }
         LOG.error("Error occured while consuming Crowd REST service", e);
         throw new RestException(e.getMessage());
     }
+
+    /**
+     * An operation sending its requests through one transport.
+     */
+    @FunctionalInterface
+    private interface TransportCall<T> {
+        T call(HttpTransport t) throws RestException;
+    }
 }
\ No newline at end of file
@@ -13,24 +13,50 @@ package org.sonatype.nexus.plugins.crowd.client.rest;
 public class RestException extends Exception {
 	private static final long serialVersionUID = 8299574203640049391L;
 
+	/**
+	 * HTTP status returned by Crowd, or -1 when the failure did not come from a Crowd response.
+	 */
+	private final int statusCode;
+
 	public RestException() {
 		super();
+		this.statusCode = -1;
 	}
 
 	public RestException(String message) {
 		super(message);
+		this.statusCode = -1;
+	}
+
+	public RestException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
 	}
 
 	public RestException(Throwable cause) {
 		super(cause);
+		this.statusCode = -1;
 	}
 
 	public RestException(String message, Throwable cause) {
 		super(message, cause);
+		this.statusCode = -1;
 	}
 
 	public RestException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
 		super(message, cause, enableSuppression, writableStackTrace);
+		this.statusCode = -1;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return true if Crowd answered that the requested entity does not exist
+	 */
+	public boolean isNotFound() {
+		return statusCode == 404;
 	}
 
 }
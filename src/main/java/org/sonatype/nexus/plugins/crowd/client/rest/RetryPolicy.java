@@ -0,0 +1,122 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.JAXBException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Decides whether a failed idempotent read is attempted again, and how long to wait before. The
+ * delay grows exponentially with full jitter, and retries are drawn from a budget refilled by a
+ * percentage of all requests, so that a Crowd outage is not answered with a multiple of its load.
+ * The budget carries over configuration changes.
+ */
+final class RetryPolicy {
+    // budget amounts are in thousandths of a retry
+    private static final long RETRY_COST = 1000;
+    // retries allowed in a row before the budget is refilled by regular traffic
+    private static final long BURST_RETRIES = 10;
+
+    private volatile int maxAttempts;
+    private volatile long baseDelayMillis;
+    private volatile long maxDelayMillis;
+    private volatile long deposit;
+    private final AtomicLong balance = new AtomicLong(BURST_RETRIES * RETRY_COST);
+    private final Meter retries;
+    private final Meter budgetExhausted;
+
+    RetryPolicy(CrowdPluginConfiguration config, CrowdMetrics metrics) {
+        configure(config);
+        retries = metrics.getRegistry().meter(CrowdMetrics.PREFIX + "retry.attempts");
+        budgetExhausted = metrics.getRegistry().meter(CrowdMetrics.PREFIX + "retry.budgetExhausted");
+    }
+
+    /**
+     * Applies new settings, keeping what is left of the budget.
+     */
+    void configure(CrowdPluginConfiguration config) {
+        maxAttempts = config.getRetryMaxAttempts();
+        baseDelayMillis = config.getRetryBaseDelay();
+        maxDelayMillis = config.getRetryMaxDelay();
+        deposit = RETRY_COST * config.getRetryBudgetPercent() / 100;
+    }
+
+    /**
+     * Called once per read, before its first attempt, to refill the budget.
+     */
+    void requested() {
+        balance.accumulateAndGet(deposit, (current, amount) -> Math.min(current + amount, BURST_RETRIES * RETRY_COST));
+    }
+
+    /**
+     * @return true if a response with this status is worth another attempt
+     */
+    static boolean isRetryable(int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * @return true if this failure is worth another attempt: an I/O error, possibly surfacing while
+     *         parsing, but not the pool being exhausted nor a response the client cannot handle,
+     *         such as one with an unsupported Content-Encoding
+     */
+    static boolean isRetryable(Exception e) {
+        if (e instanceof ConnectionPoolTimeoutException || e instanceof ClientProtocolException) {
+            return false;
+        }
+        if (e instanceof JAXBException) {
+            Throwable linked = ((JAXBException) e).getLinkedException();
+            return linked instanceof IOException || e.getCause() instanceof IOException;
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * @param attempt number of the attempt that just failed, starting at 1
+     * @return true if another attempt may be made, in which case it is taken from the budget
+     */
+    boolean allowRetry(int attempt) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        while (true) {
+            long current = balance.get();
+            if (current < RETRY_COST) {
+                budgetExhausted.mark();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - RETRY_COST)) {
+                retries.mark();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits before the attempt following <code>attempt</code>, never past the deadline of the operation.
+     */
+    void backoff(int attempt) throws InterruptedException {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        if (ceiling > 0) {
+            long delay = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            TimeUnit.NANOSECONDS.sleep(Math.min(delay, Deadline.remainingNanos()));
+        }
+    }
+}
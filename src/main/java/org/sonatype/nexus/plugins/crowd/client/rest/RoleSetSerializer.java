@@ -0,0 +1,68 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.sonatype.nexus.security.role.Role;
+
+/**
+ * Serializes the catalog of all Crowd groups, as built by {@link RestClient#getAllGroups()}.
+ */
+class RoleSetSerializer extends StreamSerializer<Set<Role>> {
+
+    @Override
+    protected void write(Set<Role> roles, DataOutput out) throws IOException {
+        out.writeInt(roles.size());
+        for (Role role : roles) {
+            out.writeUTF(role.getRoleId());
+            writeNullable(out, role.getName());
+            writeNullable(out, role.getDescription());
+        }
+    }
+
+    @Override
+    protected Set<Role> read(DataInput in) throws IOException {
+        int size = in.readInt();
+        Set<Role> roles = new HashSet<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String roleId = in.readUTF();
+            String name = readNullable(in);
+            String description = readNullable(in);
+            roles.add(new Role(roleId, name, description, "", true, null, null));
+        }
+        return roles;
+    }
+
+    @Override
+    public boolean matches(Set<Role> roles, ByteBuffer binary) {
+        // Role equality is not guaranteed to cover the attributes written above
+        Set<Role> other = decode(binary);
+        if (roles.size() != other.size()) {
+            return false;
+        }
+        Set<String> ids = new HashSet<>();
+        for (Role role : roles) {
+            ids.add(role.getRoleId());
+        }
+        for (Role role : other) {
+            if (!ids.contains(role.getRoleId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
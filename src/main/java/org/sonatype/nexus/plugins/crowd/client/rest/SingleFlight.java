@@ -0,0 +1,67 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Lets concurrent cache misses for the same key share one request to Crowd: the first thread
+ * loads the value on its own thread, with its own priority and deadline, and the others wait for
+ * it within their deadline. A failed load fails every waiter the same way; nothing is remembered
+ * once the load is over.
+ */
+final class SingleFlight<V> {
+    private final ConcurrentMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    V load(String key, RequestClass.RestCall<V> call) throws RestException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            return await(key, leader);
+        }
+        try {
+            V value = call.call();
+            flight.complete(value);
+            return value;
+        } catch (RestException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static <V> V await(String key, CompletableFuture<V> leader) throws RestException {
+        try {
+            long remaining = Deadline.remainingNanos();
+            return remaining == Long.MAX_VALUE ? leader.get() : leader.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RestException) {
+                throw (RestException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        } catch (TimeoutException te) {
+            throw new DeadlineExceededException("Operation toward Crowd ran out of time waiting for " + key, te);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RestException("interrupted while waiting for the request loading " + key);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Base of the cache codecs used by the off-heap tier and to weigh values, writing values field by
+ * field instead of relying on Java serialization (Nexus' <code>User</code> and <code>Role</code>
+ * are not meant for it).
+ */
+abstract class StreamSerializer<T> implements CacheCodec<T> {
+
+    @Override
+    public ByteBuffer encode(T object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(object, out);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Override
+    public T decode(ByteBuffer binary) {
+        byte[] bytes = new byte[binary.remaining()];
+        binary.get(bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return read(in);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    protected abstract void write(T object, DataOutput out) throws IOException;
+
+    protected abstract T read(DataInput in) throws IOException;
+
+    protected static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    protected static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
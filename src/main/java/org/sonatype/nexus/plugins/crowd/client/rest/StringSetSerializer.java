@@ -0,0 +1,41 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Serializes a user's nested group names.
+ */
+class StringSetSerializer extends StreamSerializer<Set<String>> {
+
+    @Override
+    protected void write(Set<String> groups, DataOutput out) throws IOException {
+        out.writeInt(groups.size());
+        for (String group : groups) {
+            out.writeUTF(group);
+        }
+    }
+
+    @Override
+    protected Set<String> read(DataInput in) throws IOException {
+        int size = in.readInt();
+        Set<String> groups = new HashSet<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            groups.add(in.readUTF());
+        }
+        return groups;
+    }
+}
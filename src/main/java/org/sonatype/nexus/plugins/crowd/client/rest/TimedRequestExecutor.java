@@ -0,0 +1,57 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.IOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Adds the time spent sending a request, and waiting for the head of its response, to the
+ * {@link CallTiming} of the request, if any.
+ */
+final class TimedRequestExecutor extends HttpRequestExecutor {
+
+    @Override
+    protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        CallTiming timing = CallTiming.of(context);
+        if (timing == null) {
+            return super.doSendRequest(request, conn, context);
+        }
+        long start = System.nanoTime();
+        try {
+            return super.doSendRequest(request, conn, context);
+        } finally {
+            timing.send += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws HttpException, IOException {
+        CallTiming timing = CallTiming.of(context);
+        if (timing == null) {
+            return super.doReceiveResponse(request, conn, context);
+        }
+        long start = System.nanoTime();
+        try {
+            return super.doReceiveResponse(request, conn, context);
+        } finally {
+            timing.server += System.nanoTime() - start;
+        }
+    }
+}
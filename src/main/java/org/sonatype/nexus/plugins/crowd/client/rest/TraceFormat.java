@@ -0,0 +1,131 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Layout of the access traces written by {@link AccessTrace} and replayed by {@link CacheSimulator}.
+ * It only depends on the JDK, so that the simulator runs from the plugin jar alone.
+ *
+ * A trace starts with a magic number and the time (epoch milliseconds) recording started. Each
+ * record then holds:
+ * <ul>
+ * <li>one byte: the cache in the high half, the operation in the low half</li>
+ * <li>the milliseconds since the previous record, as a variable length integer</li>
+ * <li>the 64 bit keyed hash of the key, except for {@link Op#INVALIDATE_ALL}</li>
+ * </ul>
+ * A lookup usually takes 10 bytes; the cache of an invalidation is not significant.
+ */
+final class TraceFormat {
+    static final int MAGIC = 0x43525431; // "CRT1"
+
+    /**
+     * The caches traced, and the order of their numbers in the trace.
+     */
+    enum TracedCache {
+        USERS("users"), GROUPS("groups"), ALL_GROUPS("allGroups"), AUTHS("auths");
+
+        final String label;
+
+        TracedCache(String label) {
+            this.label = label;
+        }
+    }
+
+    enum Op {
+        /** lookup answered by the cache */
+        HIT,
+        /** lookup answered by Crowd, then cached */
+        MISS,
+        /** one key dropped from every cache */
+        INVALIDATE,
+        /** every cache cleared */
+        INVALIDATE_ALL
+    }
+
+    static final class Record {
+        final TracedCache cache;
+        final Op op;
+        final long time;
+        final long key;
+
+        Record(TracedCache cache, Op op, long time, long key) {
+            this.cache = cache;
+            this.op = op;
+            this.time = time;
+            this.key = key;
+        }
+    }
+
+    private TraceFormat() {
+    }
+
+    /**
+     * @return the size of the record written
+     */
+    static int write(DataOutput out, TracedCache cache, Op op, long delta, long key) throws IOException {
+        out.writeByte(cache.ordinal() << 4 | op.ordinal());
+        int size = 1 + writeVarLong(out, delta);
+        if (op != Op.INVALIDATE_ALL) {
+            out.writeLong(key);
+            size += Long.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * @param previous time of the previous record, or the start of the trace
+     * @return the next record, null at the end of the trace
+     */
+    static Record read(DataInput in, long previous) throws IOException {
+        int header;
+        try {
+            header = in.readUnsignedByte();
+        } catch (EOFException eofe) {
+            return null;
+        }
+        if (header >>> 4 >= TracedCache.values().length || (header & 0xF) >= Op.values().length) {
+            throw new IOException("malformed access trace");
+        }
+        TracedCache cache = TracedCache.values()[header >>> 4];
+        Op op = Op.values()[header & 0xF];
+        long time = previous + readVarLong(in);
+        long key = op == Op.INVALIDATE_ALL ? 0 : in.readLong();
+        return new Record(cache, op, time, key);
+    }
+
+    private static int writeVarLong(DataOutput out, long value) throws IOException {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+            size++;
+        }
+        out.writeByte((int) value);
+        return size;
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed access trace");
+    }
+}
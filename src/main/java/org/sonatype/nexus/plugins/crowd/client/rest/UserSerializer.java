@@ -0,0 +1,57 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import org.sonatype.nexus.security.user.User;
+import org.sonatype.nexus.security.user.UserStatus;
+
+/**
+ * Serializes the Crowd attributes of a user, source and roles are filled in by the user manager.
+ */
+class UserSerializer extends StreamSerializer<User> {
+
+    @Override
+    protected void write(User user, DataOutput out) throws IOException {
+        writeNullable(out, user.getUserId());
+        writeNullable(out, user.getFirstName());
+        writeNullable(out, user.getLastName());
+        writeNullable(out, user.getEmailAddress());
+        out.writeBoolean(user.getStatus() == UserStatus.active);
+    }
+
+    @Override
+    protected User read(DataInput in) throws IOException {
+        User user = new User();
+        user.setUserId(readNullable(in));
+        user.setFirstName(readNullable(in));
+        user.setLastName(readNullable(in));
+        user.setEmailAddress(readNullable(in));
+        user.setStatus(in.readBoolean() ? UserStatus.active : UserStatus.disabled);
+        return user;
+    }
+
+    @Override
+    public boolean matches(User user, ByteBuffer binary) {
+        // User does not define equals on its attributes
+        User other = decode(binary);
+        return Objects.equals(user.getUserId(), other.getUserId())
+                && Objects.equals(user.getFirstName(), other.getFirstName())
+                && Objects.equals(user.getLastName(), other.getLastName())
+                && Objects.equals(user.getEmailAddress(), other.getEmailAddress())
+                && user.getStatus() == other.getStatus();
+    }
+}
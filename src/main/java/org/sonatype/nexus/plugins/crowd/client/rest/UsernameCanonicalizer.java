@@ -0,0 +1,39 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.Locale;
+
+/**
+ * Brings usernames to the form used as cache key and sent to Crowd, so that <code>JDoe</code>,
+ * <code>jdoe</code> and <code>jdoe </code> are looked up once.
+ */
+public final class UsernameCanonicalizer {
+    private final boolean caseSensitive;
+    private final boolean trim;
+
+    public UsernameCanonicalizer(boolean caseSensitive, boolean trim) {
+        this.caseSensitive = caseSensitive;
+        this.trim = trim;
+    }
+
+    /**
+     * @param username
+     * @return the canonical form of the username, or null if username is null
+     */
+    public String canonicalize(String username) {
+        if (username == null) {
+            return null;
+        }
+        String canonical = trim ? username.trim() : username;
+        return caseSensitive ? canonical : canonical.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.config;
+
+import java.util.Objects;
+
+/**
+ * Sizing and expiry of one of the plugin's caches.
+ *
+ * The heap tier is bounded either by entry count or, when {@link #getHeapSizeMB()} is positive, by
+ * memory. An off-heap tier is added when {@link #getOffHeapSizeMB()} is positive. When a time to
+ * idle is set it takes precedence over the time to live.
+ */
+public final class CacheSettings {
+    private final long heapEntries;
+    private final long heapSizeMB;
+    private final long offHeapSizeMB;
+    private final long ttlSeconds;
+    private final long ttiSeconds;
+
+    public CacheSettings(long heapEntries, long heapSizeMB, long offHeapSizeMB, long ttlSeconds, long ttiSeconds) {
+        if (heapEntries <= 0 && heapSizeMB <= 0) {
+            throw new IllegalArgumentException("a cache needs either a heap entry count or a heap size");
+        }
+        if (offHeapSizeMB > 0 && heapSizeMB > 0 && offHeapSizeMB <= heapSizeMB) {
+            throw new IllegalArgumentException("off-heap size must be larger than heap size");
+        }
+        this.heapEntries = heapEntries;
+        this.heapSizeMB = heapSizeMB;
+        this.offHeapSizeMB = offHeapSizeMB;
+        this.ttlSeconds = ttlSeconds;
+        this.ttiSeconds = ttiSeconds;
+    }
+
+    /**
+     * @return maximum number of entries on heap, ignored when a heap size is set
+     */
+    public long getHeapEntries() {
+        return heapEntries;
+    }
+
+    /**
+     * @return maximum heap memory (MB) used by the cache, 0 to bound by entry count
+     */
+    public long getHeapSizeMB() {
+        return heapSizeMB;
+    }
+
+    /**
+     * @return size (MB) of the off-heap tier, 0 to disable it
+     */
+    public long getOffHeapSizeMB() {
+        return offHeapSizeMB;
+    }
+
+    /**
+     * @return settings of a cache of <code>heapEntries</code> entries that never expire
+     */
+    public static CacheSettings eternal(long heapEntries) {
+        return new CacheSettings(heapEntries, 0, 0, -1, 0);
+    }
+
+    /**
+     * @return time to live (seconds) of an entry, negative when entries never expire
+     */
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * @return time to idle (seconds) of an entry, 0 to use the time to live instead
+     */
+    public long getTtiSeconds() {
+        return ttiSeconds;
+    }
+
+    /**
+     * @return true if entries never expire
+     */
+    public boolean isEternal() {
+        return ttiSeconds <= 0 && ttlSeconds < 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheSettings)) {
+            return false;
+        }
+        CacheSettings other = (CacheSettings) o;
+        return heapEntries == other.heapEntries && heapSizeMB == other.heapSizeMB
+                && offHeapSizeMB == other.offHeapSizeMB && ttlSeconds == other.ttlSeconds
+                && ttiSeconds == other.ttiSeconds;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(heapEntries, heapSizeMB, offHeapSizeMB, ttlSeconds, ttiSeconds);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheSettings[heapEntries=" + heapEntries + ", heapSizeMB=" + heapSizeMB + ", offHeapSizeMB="
+                + offHeapSizeMB + ", ttl=" + ttlSeconds + "s, tti=" + ttiSeconds + "s]";
+    }
+}
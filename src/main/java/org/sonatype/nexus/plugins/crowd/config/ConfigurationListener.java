@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.config;
+
+/**
+ * Notified when the plugin configuration has been reloaded with different values.
+ */
+public interface ConfigurationListener {
+
+    /**
+     * Called from the configuration watcher thread, never concurrently.
+     *
+     * @param previous the configuration in effect until now
+     * @param current the configuration now in effect
+     */
+    void configurationChanged(CrowdPluginConfiguration previous, CrowdPluginConfiguration current);
+}
@@ -0,0 +1,645 @@
+/**
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.config;
+
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable, validated view of the content of <code>crowd-plugin.properties</code> at one point in
+ * time. Values are parsed once, so a snapshot either is complete and valid or is not created at all.
+ */
+public final class ConfigurationSnapshot implements CrowdPluginConfiguration {
+
+    private static final String DEFAULT_HTTP_PROXY_PORT = "0";
+    private static final String DEFAULT_HTTP_MAX_CONNECTIONS = "20";
+    private static final String DEFAULT_HTTP_TIMEOUT = "5000"; // default is 5000 milliseconds
+    private static final String DEFAULT_CACHE_TTL = "3600"; // default is 3600 seconds
+    private static final String DEFAULT_NEGATIVE_CACHE_TTL = "60"; // default is 60 seconds
+    private static final String DEFAULT_NEGATIVE_CACHE_SIZE = "10000";
+    private static final String DEFAULT_AUTH_FAILURE_LIMIT = "0";
+    private static final String DEFAULT_AUTH_FAILURE_WINDOW = "300"; // default is 300 seconds
+    private static final String DEFAULT_CACHE_HEAP_ENTRIES = "1000";
+    private static final String DEFAULT_AUTH_CACHE_TTI = "300"; // default is 300 seconds
+    private static final String DEFAULT_USERNAME_CASE_SENSITIVE = "false";
+    private static final String DEFAULT_USERNAME_TRIMMED = "true";
+    private static final String DEFAULT_CROWD_MAX_REQUESTS_PER_SECOND = "0";
+    private static final String DEFAULT_CROWD_MAX_CONCURRENT_REQUESTS = "0";
+    private static final String DEFAULT_INTERACTIVE_RESERVE_PERCENT = "25";
+    private static final String DEFAULT_ADMISSION_TIMEOUT = "2000"; // default is 2000 milliseconds
+    private static final String DEFAULT_STALE_CACHE_SIZE = "10000";
+    private static final String DEFAULT_STALE_MAX_AGE = "86400"; // default is 86400 seconds
+    private static final String DEFAULT_HTTP_LEASE_TIMEOUT = "1000"; // default is 1000 milliseconds
+    private static final String DEFAULT_HTTP_KEEP_ALIVE = "60000"; // default is 60000 milliseconds
+    private static final String DEFAULT_HTTP_VALIDATE_AFTER_INACTIVITY = "2000"; // default is 2000 milliseconds
+    private static final String DEFAULT_HTTP_EVICTION_INTERVAL = "5000"; // default is 5000 milliseconds
+    private static final String DEFAULT_HTTP_PREWARM_CONNECTIONS = "0";
+    private static final String DEFAULT_LOGIN_PREFETCH_GROUPS = "true";
+    private static final String DEFAULT_LOGIN_PREFETCH_USER = "false";
+    private static final String DEFAULT_GROUP_INCLUDE = "";
+    private static final String DEFAULT_GROUP_EXCLUDE = "";
+    private static final String DEFAULT_GROUP_MAPPED_ONLY = "false";
+    private static final String DEFAULT_HTTP_COMPRESSION = "true";
+    private static final String DEFAULT_RETRY_MAX_ATTEMPTS = "3";
+    private static final String DEFAULT_RETRY_BASE_DELAY = "100"; // default is 100 milliseconds
+    private static final String DEFAULT_RETRY_MAX_DELAY = "2000"; // default is 2000 milliseconds
+    private static final String DEFAULT_RETRY_BUDGET_PERCENT = "10";
+    private static final String DEFAULT_INTERACTIVE_DEADLINE = "10000"; // default is 10000 milliseconds
+    private static final String DEFAULT_BULK_DEADLINE = "60000"; // default is 60000 milliseconds
+    private static final String DEFAULT_PAGE_SIZE_MIN = "50";
+    private static final String DEFAULT_PAGE_SIZE_MAX = "1000";
+    private static final String DEFAULT_PAGE_TARGET_LATENCY = "2000"; // default is 2000 milliseconds
+    private static final String DEFAULT_PAGE_SIZE_HINTS = "10000";
+    private static final String DEFAULT_SLOW_CALL_THRESHOLD = "2000"; // default is 2000 milliseconds
+    private static final String DEFAULT_HOT_PRINCIPALS = "500";
+    private static final String DEFAULT_HOT_PRINCIPALS_SAVE_INTERVAL = "300"; // default is 5 minutes
+    private static final String DEFAULT_HOT_PRINCIPALS_WARM_UP_CONCURRENCY = "2";
+    private static final String DEFAULT_HOT_PRINCIPALS_WARM_UP_RATE = "10";
+    private static final String DEFAULT_INVALIDATION_TRANSPORT = "none";
+    private static final String DEFAULT_INVALIDATION_POLL_INTERVAL = "1000"; // default is 1000 milliseconds
+    private static final String DEFAULT_ACCESS_TRACE = "false";
+    private static final String DEFAULT_ACCESS_TRACE_MAX_SIZE = "100"; // default is 100 MB
+    private static final String DEFAULT_CACHE_BACKEND = "ehcache";
+    private static final String DEFAULT_CACHE_REFRESH_AHEAD = "0";
+
+    private final String applicationName;
+    private final String applicationPassword;
+    private final String crowdServerUrl;
+    private final int cacheTTL;
+    private final CacheSettings userCacheSettings;
+    private final CacheSettings groupsCacheSettings;
+    private final CacheSettings allGroupsCacheSettings;
+    private final CacheSettings authCacheSettings;
+    private final int httpMaxConnections;
+    private final String httpProxyHost;
+    private final String httpProxyPassword;
+    private final int httpProxyPort;
+    private final String httpProxyUsername;
+    private final int httpTimeout;
+    private final int negativeCacheTTL;
+    private final int negativeCacheSize;
+    private final int authFailureLimit;
+    private final int authFailureWindow;
+    private final boolean usernameCaseSensitive;
+    private final boolean usernameTrimmed;
+    private final int crowdMaxRequestsPerSecond;
+    private final int crowdMaxConcurrentRequests;
+    private final int interactiveReservePercent;
+    private final int admissionTimeout;
+    private final int staleCacheSize;
+    private final int staleMaxAge;
+    private final PoolSettings interactivePoolSettings;
+    private final PoolSettings bulkPoolSettings;
+    private final PoolSettings backgroundPoolSettings;
+    private final int httpLeaseTimeout;
+    private final int httpKeepAlive;
+    private final int httpValidateAfterInactivity;
+    private final int httpEvictionInterval;
+    private final int httpPrewarmConnections;
+    private final boolean loginPrefetchGroups;
+    private final boolean loginPrefetchUser;
+    private final String groupInclude;
+    private final String groupExclude;
+    private final boolean groupMappedOnly;
+    private final boolean httpCompression;
+    private final int retryMaxAttempts;
+    private final int retryBaseDelay;
+    private final int retryMaxDelay;
+    private final int retryBudgetPercent;
+    private final int interactiveDeadline;
+    private final int bulkDeadline;
+    private final int pageSizeMin;
+    private final int pageSizeMax;
+    private final int pageTargetLatency;
+    private final int pageSizeHints;
+    private final int slowCallThreshold;
+    private final int hotPrincipals;
+    private final int hotPrincipalsSaveInterval;
+    private final int hotPrincipalsWarmUpConcurrency;
+    private final int hotPrincipalsWarmUpRate;
+    private final String invalidationTransport;
+    private final String invalidationDirectory;
+    private final int invalidationPollInterval;
+    private final boolean accessTrace;
+    private final int accessTraceMaxSize;
+    private final String cacheBackend;
+    private final int cacheRefreshAhead;
+
+    /**
+     * @param properties content of the plugin configuration file
+     * @throws IllegalArgumentException if a mandatory property is missing or a value is invalid
+     */
+    public ConfigurationSnapshot(Properties properties) {
+        this(properties, true);
+    }
+
+    /**
+     * @return the configuration in effect while the plugin is not configured: every setting has its
+     *         default value, and there is no Crowd server to connect to
+     */
+    public static ConfigurationSnapshot unconfigured() {
+        return new ConfigurationSnapshot(new Properties(), false);
+    }
+
+    @Override
+    public ConfigurationSnapshot getSnapshot() {
+        return this;
+    }
+
+    private ConfigurationSnapshot(Properties properties, boolean complete) {
+        if (complete) {
+            applicationName = required(properties, "applicationName", "Crowd application name is missing for Crowd plugin");
+            applicationPassword = required(properties, "applicationPassword", "Crowd application password is missing for Crowd plugin");
+            String url = required(properties, "crowdServerUrl", "Crowd server URL is missing for Crowd plugin");
+            crowdServerUrl = url.endsWith("/") ? url : url + "/";
+        } else {
+            applicationName = null;
+            applicationPassword = null;
+            crowdServerUrl = null;
+        }
+
+        cacheTTL = intValue(properties, "cacheTTL", DEFAULT_CACHE_TTL, 0);
+        String ttl = String.valueOf(cacheTTL);
+        userCacheSettings = cacheSettings(properties, "users", DEFAULT_CACHE_HEAP_ENTRIES, ttl, "0");
+        groupsCacheSettings = cacheSettings(properties, "groups", DEFAULT_CACHE_HEAP_ENTRIES, ttl, "0");
+        // a single entry, kept apart so that it is never evicted by per-user entries
+        allGroupsCacheSettings = cacheSettings(properties, "allGroups", "1", ttl, "0");
+        authCacheSettings = cacheSettings(properties, "auths", DEFAULT_CACHE_HEAP_ENTRIES, "0", DEFAULT_AUTH_CACHE_TTI);
+
+        httpMaxConnections = intValue(properties, "httpMaxConnections", DEFAULT_HTTP_MAX_CONNECTIONS, 1);
+        httpProxyHost = properties.getProperty("httpProxyHost");
+        httpProxyPassword = properties.getProperty("httpProxyPassword");
+        httpProxyPort = intValue(properties, "httpProxyPort", DEFAULT_HTTP_PROXY_PORT, 0);
+        httpProxyUsername = properties.getProperty("httpProxyUsername");
+        httpTimeout = intValue(properties, "httpTimeout", DEFAULT_HTTP_TIMEOUT, 0);
+        httpLeaseTimeout = intValue(properties, "httpLeaseTimeout", DEFAULT_HTTP_LEASE_TIMEOUT, 0);
+
+        negativeCacheTTL = intValue(properties, "negativeCacheTTL", DEFAULT_NEGATIVE_CACHE_TTL, 0);
+        negativeCacheSize = intValue(properties, "negativeCacheSize", DEFAULT_NEGATIVE_CACHE_SIZE, 1);
+        authFailureLimit = intValue(properties, "authFailureLimit", DEFAULT_AUTH_FAILURE_LIMIT, 0);
+        authFailureWindow = intValue(properties, "authFailureWindow", DEFAULT_AUTH_FAILURE_WINDOW, 0);
+
+        usernameCaseSensitive = Boolean.parseBoolean(properties.getProperty("usernameCaseSensitive", DEFAULT_USERNAME_CASE_SENSITIVE));
+        usernameTrimmed = Boolean.parseBoolean(properties.getProperty("usernameTrimmed", DEFAULT_USERNAME_TRIMMED));
+
+        crowdMaxRequestsPerSecond = intValue(properties, "crowdMaxRequestsPerSecond", DEFAULT_CROWD_MAX_REQUESTS_PER_SECOND, 0);
+        crowdMaxConcurrentRequests = intValue(properties, "crowdMaxConcurrentRequests", DEFAULT_CROWD_MAX_CONCURRENT_REQUESTS, 0);
+        interactiveReservePercent = intValue(properties, "interactiveReservePercent", DEFAULT_INTERACTIVE_RESERVE_PERCENT, 0);
+        admissionTimeout = intValue(properties, "admissionTimeout", DEFAULT_ADMISSION_TIMEOUT, 0);
+        staleCacheSize = intValue(properties, "staleCacheSize", DEFAULT_STALE_CACHE_SIZE, 0);
+        staleMaxAge = intValue(properties, "staleMaxAge", DEFAULT_STALE_MAX_AGE, 1);
+
+        interactivePoolSettings = poolSettings(properties, "interactive", httpMaxConnections, httpLeaseTimeout);
+        bulkPoolSettings = poolSettings(properties, "bulk", Math.max(1, httpMaxConnections / 4), httpLeaseTimeout);
+        backgroundPoolSettings = poolSettings(properties, "background", Math.max(1, httpMaxConnections / 10), httpLeaseTimeout);
+
+        httpKeepAlive = intValue(properties, "httpKeepAlive", DEFAULT_HTTP_KEEP_ALIVE, 1000);
+        httpValidateAfterInactivity = intValue(properties, "httpValidateAfterInactivity", DEFAULT_HTTP_VALIDATE_AFTER_INACTIVITY, 0);
+        httpEvictionInterval = intValue(properties, "httpEvictionInterval", DEFAULT_HTTP_EVICTION_INTERVAL, 100);
+        httpPrewarmConnections = intValue(properties, "httpPrewarmConnections", DEFAULT_HTTP_PREWARM_CONNECTIONS, 0);
+
+        loginPrefetchGroups = Boolean.parseBoolean(properties.getProperty("loginPrefetchGroups", DEFAULT_LOGIN_PREFETCH_GROUPS));
+        loginPrefetchUser = Boolean.parseBoolean(properties.getProperty("loginPrefetchUser", DEFAULT_LOGIN_PREFETCH_USER));
+
+        groupInclude = patterns(properties, "groupInclude", DEFAULT_GROUP_INCLUDE);
+        groupExclude = patterns(properties, "groupExclude", DEFAULT_GROUP_EXCLUDE);
+        groupMappedOnly = Boolean.parseBoolean(properties.getProperty("groupMappedOnly", DEFAULT_GROUP_MAPPED_ONLY));
+
+        httpCompression = Boolean.parseBoolean(properties.getProperty("httpCompression", DEFAULT_HTTP_COMPRESSION));
+
+        retryMaxAttempts = intValue(properties, "retryMaxAttempts", DEFAULT_RETRY_MAX_ATTEMPTS, 1);
+        retryBaseDelay = intValue(properties, "retryBaseDelay", DEFAULT_RETRY_BASE_DELAY, 0);
+        retryMaxDelay = intValue(properties, "retryMaxDelay", DEFAULT_RETRY_MAX_DELAY, 0);
+        retryBudgetPercent = intValue(properties, "retryBudgetPercent", DEFAULT_RETRY_BUDGET_PERCENT, 0);
+
+        interactiveDeadline = intValue(properties, "interactiveDeadline", DEFAULT_INTERACTIVE_DEADLINE, 0);
+        bulkDeadline = intValue(properties, "bulkDeadline", DEFAULT_BULK_DEADLINE, 0);
+
+        pageSizeMin = intValue(properties, "pageSizeMin", DEFAULT_PAGE_SIZE_MIN, 1);
+        pageSizeMax = intValue(properties, "pageSizeMax", DEFAULT_PAGE_SIZE_MAX, 1);
+        if (pageSizeMin > pageSizeMax) {
+            throw new IllegalArgumentException("Property pageSizeMin must not exceed pageSizeMax");
+        }
+        pageTargetLatency = intValue(properties, "pageTargetLatency", DEFAULT_PAGE_TARGET_LATENCY, 1);
+        pageSizeHints = intValue(properties, "pageSizeHints", DEFAULT_PAGE_SIZE_HINTS, 0);
+
+        slowCallThreshold = intValue(properties, "slowCallThreshold", DEFAULT_SLOW_CALL_THRESHOLD, 0);
+
+        hotPrincipals = intValue(properties, "hotPrincipals", DEFAULT_HOT_PRINCIPALS, 0);
+        hotPrincipalsSaveInterval = intValue(properties, "hotPrincipalsSaveInterval", DEFAULT_HOT_PRINCIPALS_SAVE_INTERVAL, 10);
+        hotPrincipalsWarmUpConcurrency = intValue(properties, "hotPrincipalsWarmUpConcurrency", DEFAULT_HOT_PRINCIPALS_WARM_UP_CONCURRENCY, 1);
+        hotPrincipalsWarmUpRate = intValue(properties, "hotPrincipalsWarmUpRate", DEFAULT_HOT_PRINCIPALS_WARM_UP_RATE, 1);
+
+        invalidationTransport = properties.getProperty("invalidationTransport", DEFAULT_INVALIDATION_TRANSPORT).trim();
+        invalidationDirectory = properties.getProperty("invalidationDirectory");
+        if ("directory".equals(invalidationTransport) && StringUtils.isBlank(invalidationDirectory)) {
+            throw new IllegalArgumentException("Property invalidationDirectory is required by the directory invalidation transport");
+        }
+        invalidationPollInterval = intValue(properties, "invalidationPollInterval", DEFAULT_INVALIDATION_POLL_INTERVAL, 100);
+
+        accessTrace = Boolean.parseBoolean(properties.getProperty("accessTrace", DEFAULT_ACCESS_TRACE));
+        accessTraceMaxSize = intValue(properties, "accessTraceMaxSize", DEFAULT_ACCESS_TRACE_MAX_SIZE, 1);
+
+        cacheBackend = properties.getProperty("cacheBackend", DEFAULT_CACHE_BACKEND).trim();
+        cacheRefreshAhead = intValue(properties, "cacheRefreshAhead", DEFAULT_CACHE_REFRESH_AHEAD, 0);
+        if (cacheRefreshAhead >= 100) {
+            throw new IllegalArgumentException("Property cacheRefreshAhead must be less than 100");
+        }
+    }
+
+    @Override
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    @Override
+    public String getApplicationPassword() {
+        return applicationPassword;
+    }
+
+    @Override
+    public String getCrowdServerUrl() {
+        return crowdServerUrl;
+    }
+
+    @Override
+    public int getCacheTTL() {
+        return cacheTTL;
+    }
+
+    @Override
+    public CacheSettings getUserCacheSettings() {
+        return userCacheSettings;
+    }
+
+    @Override
+    public CacheSettings getGroupsCacheSettings() {
+        return groupsCacheSettings;
+    }
+
+    @Override
+    public CacheSettings getAllGroupsCacheSettings() {
+        return allGroupsCacheSettings;
+    }
+
+    @Override
+    public CacheSettings getAuthCacheSettings() {
+        return authCacheSettings;
+    }
+
+    @Override
+    public int getHttpMaxConnections() {
+        return httpMaxConnections;
+    }
+
+    @Override
+    public String getHttpProxyHost() {
+        return httpProxyHost;
+    }
+
+    @Override
+    public String getHttpProxyPassword() {
+        return httpProxyPassword;
+    }
+
+    @Override
+    public int getHttpProxyPort() {
+        return httpProxyPort;
+    }
+
+    @Override
+    public String getHttpProxyUsername() {
+        return httpProxyUsername;
+    }
+
+    @Override
+    public int getHttpTimeout() {
+        return httpTimeout;
+    }
+
+    @Override
+    public int getNegativeCacheTTL() {
+        return negativeCacheTTL;
+    }
+
+    @Override
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    @Override
+    public int getAuthFailureLimit() {
+        return authFailureLimit;
+    }
+
+    @Override
+    public int getAuthFailureWindow() {
+        return authFailureWindow;
+    }
+
+    @Override
+    public boolean isUsernameCaseSensitive() {
+        return usernameCaseSensitive;
+    }
+
+    @Override
+    public boolean isUsernameTrimmed() {
+        return usernameTrimmed;
+    }
+
+    @Override
+    public int getCrowdMaxRequestsPerSecond() {
+        return crowdMaxRequestsPerSecond;
+    }
+
+    @Override
+    public int getCrowdMaxConcurrentRequests() {
+        return crowdMaxConcurrentRequests;
+    }
+
+    @Override
+    public int getInteractiveReservePercent() {
+        return interactiveReservePercent;
+    }
+
+    @Override
+    public int getAdmissionTimeout() {
+        return admissionTimeout;
+    }
+
+    @Override
+    public int getStaleCacheSize() {
+        return staleCacheSize;
+    }
+
+    @Override
+    public int getStaleMaxAge() {
+        return staleMaxAge;
+    }
+
+    @Override
+    public PoolSettings getInteractivePoolSettings() {
+        return interactivePoolSettings;
+    }
+
+    @Override
+    public PoolSettings getBulkPoolSettings() {
+        return bulkPoolSettings;
+    }
+
+    @Override
+    public PoolSettings getBackgroundPoolSettings() {
+        return backgroundPoolSettings;
+    }
+
+    @Override
+    public int getHttpLeaseTimeout() {
+        return httpLeaseTimeout;
+    }
+
+    @Override
+    public int getHttpKeepAlive() {
+        return httpKeepAlive;
+    }
+
+    @Override
+    public int getHttpValidateAfterInactivity() {
+        return httpValidateAfterInactivity;
+    }
+
+    @Override
+    public int getHttpEvictionInterval() {
+        return httpEvictionInterval;
+    }
+
+    @Override
+    public int getHttpPrewarmConnections() {
+        return httpPrewarmConnections;
+    }
+
+    @Override
+    public boolean isLoginPrefetchGroups() {
+        return loginPrefetchGroups;
+    }
+
+    @Override
+    public boolean isLoginPrefetchUser() {
+        return loginPrefetchUser;
+    }
+
+    @Override
+    public String getGroupInclude() {
+        return groupInclude;
+    }
+
+    @Override
+    public String getGroupExclude() {
+        return groupExclude;
+    }
+
+    @Override
+    public boolean isGroupMappedOnly() {
+        return groupMappedOnly;
+    }
+
+    @Override
+    public boolean isHttpCompression() {
+        return httpCompression;
+    }
+
+    @Override
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    @Override
+    public int getRetryBaseDelay() {
+        return retryBaseDelay;
+    }
+
+    @Override
+    public int getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    @Override
+    public int getRetryBudgetPercent() {
+        return retryBudgetPercent;
+    }
+
+    @Override
+    public int getInteractiveDeadline() {
+        return interactiveDeadline;
+    }
+
+    @Override
+    public int getBulkDeadline() {
+        return bulkDeadline;
+    }
+
+    @Override
+    public int getPageSizeMin() {
+        return pageSizeMin;
+    }
+
+    @Override
+    public int getPageSizeMax() {
+        return pageSizeMax;
+    }
+
+    @Override
+    public int getPageTargetLatency() {
+        return pageTargetLatency;
+    }
+
+    @Override
+    public int getPageSizeHints() {
+        return pageSizeHints;
+    }
+
+    @Override
+    public int getSlowCallThreshold() {
+        return slowCallThreshold;
+    }
+
+    @Override
+    public int getHotPrincipals() {
+        return hotPrincipals;
+    }
+
+    @Override
+    public int getHotPrincipalsSaveInterval() {
+        return hotPrincipalsSaveInterval;
+    }
+
+    @Override
+    public int getHotPrincipalsWarmUpConcurrency() {
+        return hotPrincipalsWarmUpConcurrency;
+    }
+
+    @Override
+    public int getHotPrincipalsWarmUpRate() {
+        return hotPrincipalsWarmUpRate;
+    }
+
+    @Override
+    public String getInvalidationTransport() {
+        return invalidationTransport;
+    }
+
+    @Override
+    public String getInvalidationDirectory() {
+        return invalidationDirectory;
+    }
+
+    @Override
+    public int getInvalidationPollInterval() {
+        return invalidationPollInterval;
+    }
+
+    @Override
+    public boolean isAccessTrace() {
+        return accessTrace;
+    }
+
+    @Override
+    public int getAccessTraceMaxSize() {
+        return accessTraceMaxSize;
+    }
+
+    @Override
+    public String getCacheBackend() {
+        return cacheBackend;
+    }
+
+    @Override
+    public int getCacheRefreshAhead() {
+        return cacheRefreshAhead;
+    }
+
+    private static String required(Properties properties, String key, String message) {
+        String value = properties.getProperty(key);
+        if (StringUtils.isEmpty(value)) {
+            throw new IllegalArgumentException(message);
+        }
+        return value;
+    }
+
+    /**
+     * @return the comma separated regular expressions of <code>key</code>, checked to compile
+     */
+    private static String patterns(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key, defaultValue).trim();
+        for (String pattern : StringUtils.split(value, ',')) {
+            try {
+                Pattern.compile(pattern.trim());
+            } catch (PatternSyntaxException pse) {
+                throw new IllegalArgumentException("Invalid pattern '" + pattern + "' for property " + key, pse);
+            }
+        }
+        return value;
+    }
+
+    private static int intValue(Properties properties, String key, String defaultValue, int min) {
+        return (int) longValue(properties, key, defaultValue, min, Integer.MAX_VALUE);
+    }
+
+    private static long longValue(Properties properties, String key, String defaultValue, long min) {
+        return longValue(properties, key, defaultValue, min, Long.MAX_VALUE);
+    }
+
+    private static long longValue(Properties properties, String key, String defaultValue, long min, long max) {
+        String value = properties.getProperty(key, defaultValue).trim();
+        long parsed;
+        try {
+            parsed = Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' for property " + key, nfe);
+        }
+        if (parsed < min) {
+            throw new IllegalArgumentException("Property " + key + " must be at least " + min + ", was " + parsed);
+        }
+        if (parsed > max) {
+            throw new IllegalArgumentException("Property " + key + " must be at most " + max + ", was " + parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Reads the settings of a connection pool from the properties prefixed with <code>pool.&lt;name&gt;.</code>
+     */
+    private static PoolSettings poolSettings(Properties properties, String name, int defaultMaxConnections,
+            int defaultLeaseTimeout) {
+        String prefix = "pool." + name + ".";
+        return new PoolSettings(
+                intValue(properties, prefix + "maxConnections", String.valueOf(defaultMaxConnections), 1),
+                intValue(properties, prefix + "leaseTimeout", String.valueOf(defaultLeaseTimeout), 0));
+    }
+
+    /**
+     * Reads the settings of a cache from the properties prefixed with <code>cache.&lt;name&gt;.</code>
+     */
+    private static CacheSettings cacheSettings(Properties properties, String name, String defaultHeapEntries,
+            String defaultTtl, String defaultTti) {
+        String prefix = "cache." + name + ".";
+        return new CacheSettings(
+                longValue(properties, prefix + "heapEntries", defaultHeapEntries, 0),
+                longValue(properties, prefix + "heapSizeMB", "0", 0),
+                longValue(properties, prefix + "offHeapSizeMB", "0", 0),
+                longValue(properties, prefix + "ttl", defaultTtl, 0),
+                longValue(properties, prefix + "tti", defaultTti, 0));
+    }
+}
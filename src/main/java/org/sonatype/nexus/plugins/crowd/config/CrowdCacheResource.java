@@ -0,0 +1,113 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.plugins.crowd.client.rest.CacheStatistics;
+import org.sonatype.nexus.plugins.crowd.client.rest.CachingRestClient;
+import org.sonatype.nexus.rest.Resource;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+
+/**
+ * Lets an administrator look into the caches of the Crowd plugin, and invalidate or warm them
+ * without restarting Nexus. Invalidations are propagated to the other nodes when an invalidation
+ * transport is configured.
+ *
+ * On a default Nexus setup:
+ * <ul>
+ * <li><code>GET http://localhost:8081/service/siesta/crowd/cache</code> lists the caches with their entry
+ * counts, hit ratios and estimated sizes</li>
+ * <li><code>DELETE .../crowd/cache</code> flushes every cache</li>
+ * <li><code>DELETE .../crowd/cache/users/{username}</code> invalidates one user in every cache</li>
+ * <li><code>POST .../crowd/cache/warm?allGroups=true</code>, with usernames one per line in a
+ * text/plain body, preloads these users and reloads the catalog of all groups in the background;
+ * it answers 202 at once, the outcome is logged</li>
+ * </ul>
+ */
+@Singleton
+@Named
+@Path(CrowdCacheResource.RESOURCE_URI)
+@RequiresAuthentication
+@RequiresPermissions("nexus:*")
+public class CrowdCacheResource implements Resource {
+    private static final Logger LOG = LoggerFactory.getLogger(CrowdCacheResource.class);
+
+    public static final String RESOURCE_URI = "/crowd/cache";
+
+    @Inject
+    private CachingRestClient restClient;
+
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public List<CacheStatistics> get() {
+        return restClient.cacheStatistics();
+    }
+
+    @DELETE
+    public void flush() {
+        restClient.invalidateAll();
+    }
+
+    @DELETE
+    @Path("users/{username}")
+    public void invalidate(@PathParam("username") String username) {
+        restClient.invalidate(username);
+    }
+
+    @POST
+    @Path("warm")
+    @Consumes({MediaType.TEXT_PLAIN})
+    public Response warm(String usernames, @QueryParam("allGroups") boolean allGroups) {
+        List<String> users = new ArrayList<>();
+        for (String line : StringUtils.split(StringUtils.defaultString(usernames), "\r\n")) {
+            if (StringUtils.isNotBlank(line)) {
+                users.add(line.trim());
+            }
+        }
+        if (allGroups) {
+            restClient.reloadAllGroups().whenComplete((ignored, failure) -> {
+                if (failure == null) {
+                    LOG.info("Catalog of Crowd groups reloaded on request");
+                } else {
+                    LOG.warn("Unable to reload the catalog of Crowd groups on request: {}", failure.toString());
+                }
+            });
+        }
+        if (!users.isEmpty()) {
+            restClient.preloadUsers(users).whenComplete((loaded, failure) -> {
+                if (failure != null) {
+                    LOG.warn("Unable to preload {} Crowd users on request: {}", users.size(), failure.toString());
+                }
+            });
+        }
+        return Response.accepted().build();
+    }
+}
@@ -18,6 +18,12 @@ package org.sonatype.nexus.plugins.crowd.config;
  */
 public interface CrowdPluginConfiguration {
 
+    /**
+     * @return the configuration currently in effect, whose values stay consistent with each other
+     *         while the configuration is reloaded
+     */
+    public CrowdPluginConfiguration getSnapshot();
+
     /**
      * Get the application name registered with Crowd.
      * 
@@ -34,12 +40,41 @@ public interface CrowdPluginConfiguration {
 
     /**
      * Get time to live (seconds) for entries stored into cache (user's details,
-     * users' nested groups, all crowd groups).
+     * users' nested groups, all crowd groups). This is the default for the
+     * individual cache settings below.
      * 
      * @return int
      */
     public int getCacheTTL();
 
+    /**
+     * Get the settings of the cache of users' details.
+     * 
+     * @return CacheSettings
+     */
+    public CacheSettings getUserCacheSettings();
+
+    /**
+     * Get the settings of the cache of users' nested groups.
+     * 
+     * @return CacheSettings
+     */
+    public CacheSettings getGroupsCacheSettings();
+
+    /**
+     * Get the settings of the cache holding the list of all Crowd groups.
+     * 
+     * @return CacheSettings
+     */
+    public CacheSettings getAllGroupsCacheSettings();
+
+    /**
+     * Get the settings of the cache of successful authentications.
+     * 
+     * @return CacheSettings
+     */
+    public CacheSettings getAuthCacheSettings();
+
     /**
      * Get the Crowd Server URL.
      * 
@@ -49,7 +84,8 @@ public interface CrowdPluginConfiguration {
 
     /**
      * Get the maximum number of HTTP connections in the connection pool for
-     * communication with the Crowd server.
+     * communication with the Crowd server. This sizes the interactive pool
+     * and, unless configured otherwise, the bulk and background pools.
      * 
      * @return int
      */
@@ -95,4 +131,422 @@ public interface CrowdPluginConfiguration {
      * @return int
      */
     public int getHttpTimeout();
+
+    /**
+     * Get time to live (seconds) for negative cache entries, i.e. users
+     * unknown to Crowd. Kept short so that newly created Crowd accounts
+     * become visible quickly.
+     * 
+     * @return int
+     */
+    public int getNegativeCacheTTL();
+
+    /**
+     * Get the maximum number of entries held in the negative cache.
+     * 
+     * @return int
+     */
+    public int getNegativeCacheSize();
+
+    /**
+     * Get the number of consecutive failed password attempts after which
+     * further attempts for the same user are rejected without contacting
+     * Crowd, unless the password matches a cached one. Anyone can then keep a
+     * user out by sending wrong passwords, so zero, which disables the
+     * throttle, is the default.
+     * 
+     * @return int
+     */
+    public int getAuthFailureLimit();
+
+    /**
+     * Get the window (seconds) during which failed password attempts are
+     * counted. Every failure restarts it: a throttled user stays throttled
+     * until no attempt has failed for that long.
+     * 
+     * @return int
+     */
+    public int getAuthFailureWindow();
+
+    /**
+     * Tell whether the Crowd directory treats usernames case sensitively. When
+     * it does not (Crowd's default), usernames are lower cased before being
+     * used as cache keys or sent to Crowd.
+     * 
+     * @return boolean
+     */
+    public boolean isUsernameCaseSensitive();
+
+    /**
+     * Tell whether leading and trailing whitespace is stripped from usernames.
+     * 
+     * @return boolean
+     */
+    public boolean isUsernameTrimmed();
+
+    /**
+     * Get the maximum rate (requests per second) at which the plugin sends
+     * requests to Crowd. A value of zero means no rate limit.
+     * 
+     * @return int
+     */
+    public int getCrowdMaxRequestsPerSecond();
+
+    /**
+     * Get the maximum number of requests to Crowd in flight at the same time.
+     * A value of zero uses the HTTP connection pool size.
+     * 
+     * @return int
+     */
+    public int getCrowdMaxConcurrentRequests();
+
+    /**
+     * Get the share (percent) of the request rate and concurrency that only
+     * interactive requests (authentication, user and nested groups lookups)
+     * may use, so that bulk and background requests cannot starve them.
+     * 
+     * @return int
+     */
+    public int getInteractiveReservePercent();
+
+    /**
+     * Get the maximum time (milliseconds) a request waits to be admitted
+     * before it is shed.
+     * 
+     * @return int
+     */
+    public int getAdmissionTimeout();
+
+    /**
+     * Get the maximum number of last known values (users, nested groups)
+     * kept to answer when Crowd cannot be asked. A value of zero disables the
+     * fallback.
+     * 
+     * @return int
+     */
+    public int getStaleCacheSize();
+
+    /**
+     * Get the maximum age (seconds) of a last known value used when Crowd
+     * cannot be asked. Older values are not answered with, so that a revoked
+     * group does not come back during an outage.
+     * 
+     * @return int
+     */
+    public int getStaleMaxAge();
+
+    /**
+     * Get the settings of the connection pool used by interactive requests
+     * (authentication, user and nested groups lookups). Defaults to
+     * httpMaxConnections connections.
+     * 
+     * @return PoolSettings
+     */
+    public PoolSettings getInteractivePoolSettings();
+
+    /**
+     * Get the settings of the connection pool used by bulk requests (user
+     * search, listing of all groups).
+     * 
+     * @return PoolSettings
+     */
+    public PoolSettings getBulkPoolSettings();
+
+    /**
+     * Get the settings of the connection pool used by background requests
+     * (cache warm-up and refreshes).
+     * 
+     * @return PoolSettings
+     */
+    public PoolSettings getBackgroundPoolSettings();
+
+    /**
+     * Get the maximum time (milliseconds) a request waits for a connection
+     * from the pool before failing fast. This is the default of the lease
+     * timeout of each pool. A value of zero waits forever.
+     * 
+     * @return int
+     */
+    public int getHttpLeaseTimeout();
+
+    /**
+     * Get how long (milliseconds) an idle connection to Crowd is kept open
+     * for reuse. A shorter duration announced by Crowd takes precedence.
+     * 
+     * @return int
+     */
+    public int getHttpKeepAlive();
+
+    /**
+     * Get the inactivity (milliseconds) after which a pooled connection is
+     * checked for staleness before being reused. A value of zero disables the
+     * check.
+     * 
+     * @return int
+     */
+    public int getHttpValidateAfterInactivity();
+
+    /**
+     * Get the interval (milliseconds) at which expired and idle connections
+     * are evicted from the pools.
+     * 
+     * @return int
+     */
+    public int getHttpEvictionInterval();
+
+    /**
+     * Get the number of connections to open (including the TLS handshake)
+     * in the interactive pool before the plugin serves traffic. A value of zero
+     * disables pre-warming.
+     * 
+     * @return int
+     */
+    public int getHttpPrewarmConnections();
+
+    /**
+     * Tell whether the nested groups of a user are fetched in parallel with
+     * the authentication request, so that they are cached by the time the
+     * user's permissions are checked.
+     * 
+     * @return boolean
+     */
+    public boolean isLoginPrefetchGroups();
+
+    /**
+     * Tell whether the details of a user are fetched in parallel with the
+     * authentication request.
+     * 
+     * @return boolean
+     */
+    public boolean isLoginPrefetchUser();
+
+    /**
+     * Get the comma separated regular expressions a Crowd group name must
+     * match to be kept. Empty keeps every group.
+     * 
+     * @return String
+     */
+    public String getGroupInclude();
+
+    /**
+     * Get the comma separated regular expressions of Crowd group names to
+     * drop, applied after the include patterns.
+     * 
+     * @return String
+     */
+    public String getGroupExclude();
+
+    /**
+     * Tell whether only the nested groups of a user that are mapped to a
+     * Nexus role are kept. The list of all groups, used to map new roles, is
+     * not restricted. Cached groups are dropped within a minute of a change to
+     * the Nexus roles.
+     * 
+     * @return boolean
+     */
+    public boolean isGroupMappedOnly();
+
+    /**
+     * Tell whether compressed (gzip or deflate) responses are requested from
+     * Crowd. They are decompressed while being parsed.
+     * 
+     * @return boolean
+     */
+    public boolean isHttpCompression();
+
+    /**
+     * Get the maximum number of attempts of an idempotent read (user, nested
+     * groups, search pages) failing with an I/O error or a 502, 503 or 504
+     * response. A value of 1 disables retries. Authentication is never retried.
+     * 
+     * @return int
+     */
+    public int getRetryMaxAttempts();
+
+    /**
+     * Get the base delay (milliseconds) of the exponential backoff between two
+     * attempts. The actual delay is chosen at random up to the backoff.
+     * 
+     * @return int
+     */
+    public int getRetryBaseDelay();
+
+    /**
+     * Get the maximum delay (milliseconds) between two attempts.
+     * 
+     * @return int
+     */
+    public int getRetryMaxDelay();
+
+    /**
+     * Get the number of retries allowed, in percent of the requests sent to
+     * Crowd, on top of a small burst allowance. Once exhausted, failures are
+     * reported without retry so that retries cannot amplify an outage.
+     * 
+     * @return int
+     */
+    public int getRetryBudgetPercent();
+
+    /**
+     * Get the time (milliseconds) an interactive operation (authentication,
+     * user or nested groups lookup) may take in total, retries and pages
+     * included. A value of zero disables the deadline.
+     * 
+     * @return int
+     */
+    public int getInteractiveDeadline();
+
+    /**
+     * Get the time (milliseconds) an administrative operation (user search,
+     * listing of all groups) may take in total, all pages included. A value of
+     * zero disables the deadline.
+     * 
+     * @return int
+     */
+    public int getBulkDeadline();
+
+    /**
+     * Get the smallest number of entities requested per page from Crowd.
+     * 
+     * @return int
+     */
+    public int getPageSizeMin();
+
+    /**
+     * Get the largest number of entities requested per page from Crowd.
+     * 
+     * @return int
+     */
+    public int getPageSizeMax();
+
+    /**
+     * Get the time (milliseconds) a page should take to be served. Page sizes
+     * are halved when a page takes longer, and grown while full pages take less
+     * than half of it.
+     * 
+     * @return int
+     */
+    public int getPageTargetLatency();
+
+    /**
+     * Get the number of users whose count of nested groups is remembered, so
+     * that their next lookup is sized to be served in a single request.
+     * 
+     * @return int
+     */
+    public int getPageSizeHints();
+
+    /**
+     * Get the duration (milliseconds) above which a request to Crowd is logged
+     * with the time spent in each of its phases, 0 to log none.
+     * 
+     * @return int
+     */
+    public int getSlowCallThreshold();
+
+    /**
+     * Get the number of most frequently looked up usernames saved across restarts
+     * and preloaded by the warm-up, 0 to save none. Only usernames are saved.
+     * 
+     * @return int
+     */
+    public int getHotPrincipals();
+
+    /**
+     * Get the interval (seconds) between two saves of the most frequently looked
+     * up usernames.
+     * 
+     * @return int
+     */
+    public int getHotPrincipalsSaveInterval();
+
+    /**
+     * Get the number of users preloaded concurrently by the warm-up.
+     * 
+     * @return int
+     */
+    public int getHotPrincipalsWarmUpConcurrency();
+
+    /**
+     * Get the number of users per second the warm-up starts preloading at most.
+     * 
+     * @return int
+     */
+    public int getHotPrincipalsWarmUpRate();
+
+    /**
+     * Get how cache invalidations are propagated to the other Nexus nodes: none,
+     * local (nodes in the same JVM), directory (a directory shared by the nodes) or
+     * the name of a class implementing InvalidationTransport.
+     * 
+     * @return String
+     */
+    public String getInvalidationTransport();
+
+    /**
+     * Get the directory shared by the Nexus nodes, for the directory invalidation
+     * transport.
+     * 
+     * @return String
+     */
+    public String getInvalidationDirectory();
+
+    /**
+     * Get the interval (milliseconds) between two polls of the shared directory for
+     * invalidations published by the other nodes.
+     * 
+     * @return int
+     */
+    public int getInvalidationPollInterval();
+
+    /**
+     * Get whether the cache lookups are recorded to a trace file, for the offline
+     * cache simulator. The trace holds keyed hashes of the usernames, not the
+     * usernames.
+     * 
+     * @return boolean
+     */
+    public boolean isAccessTrace();
+
+    /**
+     * Get the size (MB) at which recording the cache lookups stops.
+     * 
+     * @return int
+     */
+    public int getAccessTraceMaxSize();
+
+    /**
+     * Get the implementation of the plugin's caches: ehcache, caffeine (frequency
+     * aware eviction, W-TinyLFU) or the name of a class implementing CacheBackend.
+     * 
+     * @return String
+     */
+    public String getCacheBackend();
+
+    /**
+     * Get the share (percent) of the time to live after which an entry still looked
+     * up is reloaded in the background, 0 to let entries expire. Only the caffeine
+     * backend refreshes entries, and only those of the users, groups and allGroups
+     * caches.
+     * 
+     * @return int
+     */
+    public int getCacheRefreshAhead();
+
+    /**
+     * Register a listener notified whenever the configuration is reloaded with
+     * different values. Configurations that never change ignore listeners.
+     * 
+     * @param listener
+     */
+    public default void addListener(ConfigurationListener listener) {
+    }
+
+    /**
+     * Unregister a listener registered with {@link #addListener(ConfigurationListener)}.
+     * 
+     * @param listener
+     */
+    public default void removeListener(ConfigurationListener listener) {
+    }
 }
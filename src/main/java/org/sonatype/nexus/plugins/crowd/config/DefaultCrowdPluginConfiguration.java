@@ -12,117 +12,485 @@
  */
 package org.sonatype.nexus.plugins.crowd.config;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Named;
 import jakarta.inject.Singleton;
 
+/**
+ * Reads <code>crowd-plugin.properties</code> from <code>karaf.etc</code> and watches it, so that changes
+ * are applied without restarting Nexus. Every getter reads from the current {@link ConfigurationSnapshot};
+ * a file that does not validate is reported and leaves the previous snapshot in place. A file missing or
+ * invalid at startup does not stop Nexus: the plugin stays {@link ConfigurationSnapshot#unconfigured()}
+ * until the file is fixed.
+ */
 @Named
 @Singleton
 public class DefaultCrowdPluginConfiguration implements CrowdPluginConfiguration {
 
     private final Logger LOG = LoggerFactory.getLogger(DefaultCrowdPluginConfiguration.class);
 
-    private final String DEFAULT_HTTP_PROXY_PORT = "0";
-    private final String DEFAULT_HTTP_MAX_CONNECTIONS = "20";
-    private final String DEFAULT_HTTP_TIMEOUT = "5000"; // default is 5000 milliseconds
-    private final String DEFAULT_CACHE_TTL = "3600"; // default is 3600 seconds
+    private static final String CONFIG_FILE_NAME = "crowd-plugin.properties";
+
+    // editors usually write a file in several steps, wait for them to settle
+    private static final long RELOAD_DELAY_MILLIS = 500;
 
-    private Properties crowdConfigProperties;
+    private final File crowdConfigFile;
+    private final List<ConfigurationListener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread watcher;
 
-    public DefaultCrowdPluginConfiguration() throws FileNotFoundException, IOException {
+    private volatile Properties crowdConfigProperties = new Properties();
+    private volatile ConfigurationSnapshot snapshot = ConfigurationSnapshot.unconfigured();
+
+    public DefaultCrowdPluginConfiguration() {
         String karafEtc = System.getProperty("karaf.etc");
         if (StringUtils.isEmpty(karafEtc)) {
-            throw new RuntimeException("cannot load karaf.etc property value");
+            LOG.error("cannot load karaf.etc property value, the Crowd plugin is not configured");
+            crowdConfigFile = null;
+            watcher = null;
+            return;
         }
 
-        File crowdConfigFile = new File(karafEtc, "crowd-plugin.properties");
-        crowdConfigProperties = new Properties();
-        try (InputStream in = new FileInputStream(crowdConfigFile)) {
-            crowdConfigProperties.load(in);
+        crowdConfigFile = new File(karafEtc, CONFIG_FILE_NAME);
+        try {
+            Properties properties = load(crowdConfigFile);
+            snapshot = new ConfigurationSnapshot(properties);
+            crowdConfigProperties = properties;
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Crowd plugin is not configured, {} could not be loaded: {}. It is applied as soon as it is fixed.",
+                    crowdConfigFile, e.getMessage());
+        }
+
+        watcher = new Thread(this::watch, "crowd-plugin-config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the configuration file.
+     */
+    @PreDestroy
+    public void close() {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    @Override
+    public ConfigurationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public void addListener(ConfigurationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(ConfigurationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reads the configuration file again and notifies the listeners if its content changed.
+     */
+    public synchronized void reload() {
+        if (crowdConfigFile == null) {
+            return;
+        }
+        Properties properties;
+        ConfigurationSnapshot next;
+        try {
+            properties = load(crowdConfigFile);
+            next = new ConfigurationSnapshot(properties);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Invalid Crowd plugin configuration in {}, keeping the previous one: {}", crowdConfigFile, e.getMessage());
+            return;
+        }
+
+        if (properties.equals(crowdConfigProperties)) {
+            return;
+        }
+
+        ConfigurationSnapshot previous = snapshot;
+        crowdConfigProperties = properties;
+        snapshot = next;
+        LOG.info("Crowd plugin configuration reloaded from {}", crowdConfigFile);
+
+        for (ConfigurationListener listener : listeners) {
+            try {
+                listener.configurationChanged(previous, next);
+            } catch (RuntimeException e) {
+                LOG.error("Unable to apply the new Crowd plugin configuration", e);
+            }
+        }
+    }
+
+    private Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
         }
 
         if (LOG.isTraceEnabled()) {
             LOG.trace("content of crowd plugin config file");
-            crowdConfigProperties.forEach((k, v) -> LOG.trace(k + ": " + v)); 
+            properties.forEach((k, v) -> LOG.trace(k + ": " + v));
+        }
+        return properties;
+    }
+
+    private void watch() {
+        Path dir = crowdConfigFile.getParentFile().toPath();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (CONFIG_FILE_NAME.equals(String.valueOf(event.context()))) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if (changed) {
+                    Thread.sleep(RELOAD_DELAY_MILLIS);
+                    reload();
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Stopped watching {}, configuration changes require a restart", crowdConfigFile, e);
         }
     }
 
     @Override
     public String getApplicationName() {
-        String applicationName = crowdConfigProperties.getProperty("applicationName");
-        if (StringUtils.isEmpty(applicationName)) {
-            throw new RuntimeException("Crowd application name is missing for Crowd plugin");
-        }
-        return applicationName;
+        return snapshot.getApplicationName();
     }
 
     @Override
     public String getApplicationPassword() {
-        String applicationPassword = crowdConfigProperties.getProperty("applicationPassword");
-        if (StringUtils.isEmpty(applicationPassword)) {
-            throw new RuntimeException("Crowd application password is missing for Crowd plugin");
-        }
-        return applicationPassword;
+        return snapshot.getApplicationPassword();
     }
 
     @Override
     public String getCrowdServerUrl() {
-        String crowdServerUrl = crowdConfigProperties.getProperty("crowdServerUrl");
-        if (StringUtils.isEmpty(crowdServerUrl)) {
-            throw new RuntimeException("Crowd server URL is missing for Crowd plugin");
-        }
-        if (!crowdServerUrl.endsWith("/")) {
-            crowdServerUrl += "/";
-        }
-        return crowdServerUrl;
+        return snapshot.getCrowdServerUrl();
     }
 
     @Override
     public int getCacheTTL() {
-        String value = crowdConfigProperties.getProperty("cacheTTL", DEFAULT_CACHE_TTL);
-        return Integer.parseInt(value);
+        return snapshot.getCacheTTL();
+    }
+
+    @Override
+    public CacheSettings getUserCacheSettings() {
+        return snapshot.getUserCacheSettings();
+    }
+
+    @Override
+    public CacheSettings getGroupsCacheSettings() {
+        return snapshot.getGroupsCacheSettings();
+    }
+
+    @Override
+    public CacheSettings getAllGroupsCacheSettings() {
+        return snapshot.getAllGroupsCacheSettings();
+    }
+
+    @Override
+    public CacheSettings getAuthCacheSettings() {
+        return snapshot.getAuthCacheSettings();
     }
 
     @Override
     public int getHttpMaxConnections() {
-        String value = crowdConfigProperties.getProperty("httpMaxConnections", DEFAULT_HTTP_MAX_CONNECTIONS);
-        return Integer.parseInt(value);
+        return snapshot.getHttpMaxConnections();
     }
 
     @Override
     public String getHttpProxyHost() {
-        return crowdConfigProperties.getProperty("httpProxyHost");
+        return snapshot.getHttpProxyHost();
     }
 
     @Override
     public String getHttpProxyPassword() {
-        return crowdConfigProperties.getProperty("httpProxyPassword");
+        return snapshot.getHttpProxyPassword();
     }
 
     @Override
     public int getHttpProxyPort() {
-        String value = crowdConfigProperties.getProperty("httpProxyPort", DEFAULT_HTTP_PROXY_PORT);
-        return Integer.parseInt(value);
+        return snapshot.getHttpProxyPort();
     }
 
     @Override
     public String getHttpProxyUsername() {
-        return crowdConfigProperties.getProperty("httpProxyUsername");
+        return snapshot.getHttpProxyUsername();
     }
 
     @Override
     public int getHttpTimeout() {
-        String value = crowdConfigProperties.getProperty("httpTimeout", DEFAULT_HTTP_TIMEOUT);
-        return Integer.parseInt(value);
+        return snapshot.getHttpTimeout();
+    }
+
+    @Override
+    public int getNegativeCacheTTL() {
+        return snapshot.getNegativeCacheTTL();
+    }
+
+    @Override
+    public int getNegativeCacheSize() {
+        return snapshot.getNegativeCacheSize();
+    }
+
+    @Override
+    public int getAuthFailureLimit() {
+        return snapshot.getAuthFailureLimit();
+    }
+
+    @Override
+    public int getAuthFailureWindow() {
+        return snapshot.getAuthFailureWindow();
+    }
+
+    @Override
+    public boolean isUsernameCaseSensitive() {
+        return snapshot.isUsernameCaseSensitive();
+    }
+
+    @Override
+    public boolean isUsernameTrimmed() {
+        return snapshot.isUsernameTrimmed();
+    }
+
+    @Override
+    public int getCrowdMaxRequestsPerSecond() {
+        return snapshot.getCrowdMaxRequestsPerSecond();
+    }
+
+    @Override
+    public int getCrowdMaxConcurrentRequests() {
+        return snapshot.getCrowdMaxConcurrentRequests();
+    }
+
+    @Override
+    public int getInteractiveReservePercent() {
+        return snapshot.getInteractiveReservePercent();
+    }
+
+    @Override
+    public int getAdmissionTimeout() {
+        return snapshot.getAdmissionTimeout();
+    }
+
+    @Override
+    public int getStaleCacheSize() {
+        return snapshot.getStaleCacheSize();
+    }
+
+    @Override
+    public int getStaleMaxAge() {
+        return snapshot.getStaleMaxAge();
+    }
+
+    @Override
+    public PoolSettings getInteractivePoolSettings() {
+        return snapshot.getInteractivePoolSettings();
+    }
+
+    @Override
+    public PoolSettings getBulkPoolSettings() {
+        return snapshot.getBulkPoolSettings();
+    }
+
+    @Override
+    public PoolSettings getBackgroundPoolSettings() {
+        return snapshot.getBackgroundPoolSettings();
+    }
+
+    @Override
+    public int getHttpLeaseTimeout() {
+        return snapshot.getHttpLeaseTimeout();
+    }
+
+    @Override
+    public int getHttpKeepAlive() {
+        return snapshot.getHttpKeepAlive();
+    }
+
+    @Override
+    public int getHttpValidateAfterInactivity() {
+        return snapshot.getHttpValidateAfterInactivity();
+    }
+
+    @Override
+    public int getHttpEvictionInterval() {
+        return snapshot.getHttpEvictionInterval();
+    }
+
+    @Override
+    public int getHttpPrewarmConnections() {
+        return snapshot.getHttpPrewarmConnections();
+    }
+
+    @Override
+    public boolean isLoginPrefetchGroups() {
+        return snapshot.isLoginPrefetchGroups();
+    }
+
+    @Override
+    public boolean isLoginPrefetchUser() {
+        return snapshot.isLoginPrefetchUser();
+    }
+
+    @Override
+    public String getGroupInclude() {
+        return snapshot.getGroupInclude();
+    }
+
+    @Override
+    public String getGroupExclude() {
+        return snapshot.getGroupExclude();
+    }
+
+    @Override
+    public boolean isGroupMappedOnly() {
+        return snapshot.isGroupMappedOnly();
+    }
+
+    @Override
+    public boolean isHttpCompression() {
+        return snapshot.isHttpCompression();
+    }
+
+    @Override
+    public int getRetryMaxAttempts() {
+        return snapshot.getRetryMaxAttempts();
+    }
+
+    @Override
+    public int getRetryBaseDelay() {
+        return snapshot.getRetryBaseDelay();
+    }
+
+    @Override
+    public int getRetryMaxDelay() {
+        return snapshot.getRetryMaxDelay();
+    }
+
+    @Override
+    public int getRetryBudgetPercent() {
+        return snapshot.getRetryBudgetPercent();
+    }
+
+    @Override
+    public int getInteractiveDeadline() {
+        return snapshot.getInteractiveDeadline();
+    }
+
+    @Override
+    public int getBulkDeadline() {
+        return snapshot.getBulkDeadline();
+    }
+
+    @Override
+    public int getPageSizeMin() {
+        return snapshot.getPageSizeMin();
+    }
+
+    @Override
+    public int getPageSizeMax() {
+        return snapshot.getPageSizeMax();
+    }
+
+    @Override
+    public int getPageTargetLatency() {
+        return snapshot.getPageTargetLatency();
+    }
+
+    @Override
+    public int getPageSizeHints() {
+        return snapshot.getPageSizeHints();
+    }
+
+    @Override
+    public int getSlowCallThreshold() {
+        return snapshot.getSlowCallThreshold();
+    }
+
+    @Override
+    public int getHotPrincipals() {
+        return snapshot.getHotPrincipals();
+    }
+
+    @Override
+    public int getHotPrincipalsSaveInterval() {
+        return snapshot.getHotPrincipalsSaveInterval();
+    }
+
+    @Override
+    public int getHotPrincipalsWarmUpConcurrency() {
+        return snapshot.getHotPrincipalsWarmUpConcurrency();
+    }
+
+    @Override
+    public int getHotPrincipalsWarmUpRate() {
+        return snapshot.getHotPrincipalsWarmUpRate();
+    }
+
+    @Override
+    public String getInvalidationTransport() {
+        return snapshot.getInvalidationTransport();
+    }
+
+    @Override
+    public String getInvalidationDirectory() {
+        return snapshot.getInvalidationDirectory();
+    }
+
+    @Override
+    public int getInvalidationPollInterval() {
+        return snapshot.getInvalidationPollInterval();
+    }
+
+    @Override
+    public boolean isAccessTrace() {
+        return snapshot.isAccessTrace();
+    }
+
+    @Override
+    public int getAccessTraceMaxSize() {
+        return snapshot.getAccessTraceMaxSize();
+    }
+
+    @Override
+    public String getCacheBackend() {
+        return snapshot.getCacheBackend();
+    }
+
+    @Override
+    public int getCacheRefreshAhead() {
+        return snapshot.getCacheRefreshAhead();
     }
 
 }
@@ -0,0 +1,65 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.config;
+
+import java.util.Objects;
+
+/**
+ * Size and lease timeout of one of the connection pools to Crowd.
+ */
+public final class PoolSettings {
+    private final int maxConnections;
+    private final int leaseTimeout;
+
+    public PoolSettings(int maxConnections, int leaseTimeout) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("a connection pool needs at least one connection");
+        }
+        this.maxConnections = maxConnections;
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    /**
+     * @return maximum number of connections in the pool
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return maximum time (milliseconds) to wait for a connection from the pool, 0 to wait forever
+     */
+    public int getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PoolSettings)) {
+            return false;
+        }
+        PoolSettings other = (PoolSettings) o;
+        return maxConnections == other.maxConnections && leaseTimeout == other.leaseTimeout;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxConnections, leaseTimeout);
+    }
+
+    @Override
+    public String toString() {
+        return "PoolSettings[maxConnections=" + maxConnections + ", leaseTimeout=" + leaseTimeout + "ms]";
+    }
+}
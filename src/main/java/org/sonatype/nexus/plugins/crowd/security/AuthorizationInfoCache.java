@@ -0,0 +1,151 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.security;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.Cache;
+import org.sonatype.nexus.plugins.crowd.client.rest.CacheInvalidationListener;
+
+/**
+ * Authorization cache of {@link CrowdAuthenticatingRealm}, keyed by canonical username. Entries are
+ * dropped when the plugin discards the groups they were built from, and never outlive the lifetime
+ * of the groups cache, even when its expiry is not reported. It holds at most as many users as the
+ * groups cache; when full, expired entries then the oldest ones are dropped. An
+ * {@link ImmutableAuthorizationInfo} built across an invalidation is not cached.
+ */
+final class AuthorizationInfoCache implements Cache<Object, AuthorizationInfo>, CacheInvalidationListener {
+
+    private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final LongSupplier lifetimeMillis;
+    private final LongSupplier maxEntries;
+    private final LongSupplier generation;
+
+    /**
+     * @param lifetimeMillis maximum age of an entry, read on every lookup
+     * @param maxEntries maximum number of entries, read on every put
+     * @param generation current invalidation generation of the rest client
+     */
+    AuthorizationInfoCache(LongSupplier lifetimeMillis, LongSupplier maxEntries, LongSupplier generation) {
+        this.lifetimeMillis = lifetimeMillis;
+        this.maxEntries = maxEntries;
+        this.generation = generation;
+    }
+
+    @Override
+    public AuthorizationInfo get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.created > lifetimeMillis.getAsLong()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.info;
+    }
+
+    @Override
+    public AuthorizationInfo put(Object key, AuthorizationInfo value) {
+        if (stale(value)) {
+            return null;
+        }
+        Entry entry = new Entry(value);
+        Entry previous = entries.put(key, entry);
+        // an invalidation bumps the generation before notifying this cache: one that notified it
+        // between the check above and the put is seen here
+        if (stale(value)) {
+            entries.remove(key, entry);
+        }
+        long max = maxEntries.getAsLong();
+        if (entries.size() > max) {
+            shrink(max);
+        }
+        return previous == null ? null : previous.info;
+    }
+
+    private boolean stale(AuthorizationInfo value) {
+        return value instanceof ImmutableAuthorizationInfo
+                && ((ImmutableAuthorizationInfo) value).getGeneration() != generation.getAsLong();
+    }
+
+    // down to 90% of max, so that a full cache is not scanned on every put
+    private synchronized void shrink(long max) {
+        if (entries.size() <= max) {
+            return;
+        }
+        long expired = System.currentTimeMillis() - lifetimeMillis.getAsLong();
+        entries.values().removeIf(entry -> entry.created < expired);
+        long excess = entries.size() - max * 9 / 10;
+        if (excess > 0) {
+            entries.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().created))
+                    .limit(excess)
+                    .collect(Collectors.toList())
+                    .forEach(e -> entries.remove(e.getKey(), e.getValue()));
+        }
+    }
+
+    @Override
+    public AuthorizationInfo remove(Object key) {
+        Entry previous = entries.remove(key);
+        return previous == null ? null : previous.info;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public Set<Object> keys() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    @Override
+    public Collection<AuthorizationInfo> values() {
+        List<AuthorizationInfo> values = entries.values().stream().map(entry -> entry.info).collect(Collectors.toList());
+        return Collections.unmodifiableList(values);
+    }
+
+    @Override
+    public void invalidated(String username) {
+        entries.remove(username);
+    }
+
+    @Override
+    public void invalidatedAll() {
+        entries.clear();
+    }
+
+    private static final class Entry {
+        final AuthorizationInfo info;
+        final long created = System.currentTimeMillis();
+
+        Entry(AuthorizationInfo info) {
+            this.info = info;
+        }
+    }
+}
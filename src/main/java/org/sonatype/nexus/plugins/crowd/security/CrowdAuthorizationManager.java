@@ -13,6 +13,7 @@
 package org.sonatype.nexus.plugins.crowd.security;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -68,9 +69,11 @@ public class CrowdAuthorizationManager extends AbstractReadOnlyAuthorizationMana
     @Override
     public Set<Role> listRoles() {
         try {
-            Set<Role> roles = restClient.getAllGroups();
-            for (Role role : roles) {
-                role.setSource(getSource());
+            // deep copies, the roles returned by the client may be the cached ones
+            Set<Role> roles = new HashSet<>();
+            for (Role role : restClient.getAllGroups()) {
+                roles.add(new Role(role.getRoleId(), role.getName(), role.getDescription(), getSource(),
+                        role.isReadOnly(), copy(role.getRoles()), copy(role.getPrivileges())));
             }
             return roles;
         } catch (RestException e) {
@@ -79,6 +82,10 @@ public class CrowdAuthorizationManager extends AbstractReadOnlyAuthorizationMana
         }
     }
 
+    private static Set<String> copy(Set<String> ids) {
+        return ids == null ? null : new HashSet<>(ids);
+    }
+
     @Override
     public Set<Privilege> listPrivileges() {
         return Collections.emptySet();
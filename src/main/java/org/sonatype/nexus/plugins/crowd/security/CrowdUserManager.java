@@ -13,6 +13,7 @@
 package org.sonatype.nexus.plugins.crowd.security;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 
@@ -73,7 +74,7 @@ public class CrowdUserManager extends AbstractReadOnlyUserManager {
     @Override
     public User getUser(String userId) throws UserNotFoundException {
         try {
-            User user = restClient.getUser(userId);
+            User user = restClient.getUser(restClient.canonicalUsername(userId));
             return completeUserRolesAndSource(user);
         } catch (RestException e) {
             String mesg = "Unable to look up user " + userId;
@@ -101,10 +102,9 @@ public class CrowdUserManager extends AbstractReadOnlyUserManager {
         }
 
         try {
-            Set<User> result = restClient.searchUsers(criteria.getUserId());
-
-            for (User user : result) {
-                completeUserRolesAndSource(user);
+            Set<User> result = new HashSet<>();
+            for (User user : restClient.searchUsers(restClient.canonicalUsername(criteria.getUserId()))) {
+                result.add(completeUserRolesAndSource(user));
             }
 
             return result;
@@ -121,7 +121,15 @@ public class CrowdUserManager extends AbstractReadOnlyUserManager {
     }
 
 
-    private User completeUserRolesAndSource(User user) {
+    // the client may hand out the instance it caches, which other threads read concurrently
+    private User completeUserRolesAndSource(User cached) {
+        User user = new User();
+        user.setUserId(cached.getUserId());
+        user.setFirstName(cached.getFirstName());
+        user.setLastName(cached.getLastName());
+        user.setEmailAddress(cached.getEmailAddress());
+        user.setStatus(cached.getStatus());
+        user.setReadOnly(cached.isReadOnly());
         user.setSource(SOURCE);
         user.setRoles(getUsersRoles(user.getUserId()));
         return user;
@@ -131,6 +139,13 @@ public class CrowdUserManager extends AbstractReadOnlyUserManager {
         Set<String> roleNames = null;
         try {
             roleNames = restClient.getNestedGroups(userId);
+        } catch (RestException e) {
+            if (e.isNotFound()) {
+                log.debug("User {} is unknown to Crowd", userId);
+            } else {
+                log.error("Unable to look up user " + userId, e);
+            }
+            return Collections.emptySet();
         } catch (Exception e) {
             log.error("Unable to look up user " + userId, e);
             return Collections.emptySet();
@@ -0,0 +1,62 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.security;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+
+/**
+ * Roles of a Crowd user, built once and shared by every permission check until invalidated.
+ */
+final class ImmutableAuthorizationInfo implements AuthorizationInfo {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Generation of roles that must not be cached, never the current one.
+     */
+    static final long NOT_CACHEABLE = -1;
+
+    private final Set<String> roles;
+    private final long generation;
+
+    /**
+     * @param roles
+     * @param generation invalidation generation of the rest client read before the roles were looked up
+     */
+    ImmutableAuthorizationInfo(Set<String> roles, long generation) {
+        this.roles = Collections.unmodifiableSet(new HashSet<>(roles));
+        this.generation = generation;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public Collection<String> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public Collection<String> getStringPermissions() {
+        return null;
+    }
+
+    @Override
+    public Collection<Permission> getObjectPermissions() {
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import org.sonatype.nexus.plugins.crowd.config.ConfigurationSnapshot;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void permitsHeldAcrossAReconfigurationStillCount() throws Exception {
+        AdmissionController admission = new AdmissionController(config(2, "3600"), new CrowdMetrics());
+        AdmissionController.Permit first = admission.acquire(RequestClass.INTERACTIVE);
+        AdmissionController.Permit second = admission.acquire(RequestClass.INTERACTIVE);
+
+        // an unrelated change
+        admission.configure(config(2, "60"));
+        assertRejected(admission);
+
+        first.close();
+        admission.acquire(RequestClass.INTERACTIVE).close();
+        second.close();
+    }
+
+    @Test
+    public void loweredLimitAppliesOnceHeldPermitsAreReleased() throws Exception {
+        AdmissionController admission = new AdmissionController(config(2, "3600"), new CrowdMetrics());
+        AdmissionController.Permit first = admission.acquire(RequestClass.INTERACTIVE);
+        AdmissionController.Permit second = admission.acquire(RequestClass.INTERACTIVE);
+
+        admission.configure(config(1, "3600"));
+        first.close();
+        assertRejected(admission);
+
+        second.close();
+        admission.acquire(RequestClass.INTERACTIVE).close();
+    }
+
+    private static void assertRejected(AdmissionController admission) {
+        try {
+            admission.acquire(RequestClass.INTERACTIVE).close();
+            fail("admitted above the concurrency limit");
+        } catch (RequestRejectedException expected) {
+        }
+    }
+
+    private static ConfigurationSnapshot config(int concurrency, String cacheTTL) {
+        Properties properties = new Properties();
+        properties.setProperty("applicationName", "nexus");
+        properties.setProperty("applicationPassword", "secret");
+        properties.setProperty("crowdServerUrl", "http://127.0.0.1:1/crowd/");
+        properties.setProperty("crowdMaxConcurrentRequests", String.valueOf(concurrency));
+        properties.setProperty("admissionTimeout", "50");
+        properties.setProperty("cacheTTL", cacheTTL);
+        return new ConfigurationSnapshot(properties);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+import org.sonatype.nexus.plugins.crowd.config.CacheSettings;
+import org.sonatype.nexus.plugins.crowd.config.ConfigurationSnapshot;
+import org.sonatype.nexus.plugins.crowd.config.CrowdPluginConfiguration;
+
+/**
+ * Latency of a groups cache lookup with each {@link CacheBackend}, from one thread and from several
+ * contending ones, and the hit ratio the backend keeps. Users are drawn from four times as many
+ * keys as the cache holds, a missed one is loaded into the cache:
+ * <ul>
+ * <li><code>zipf</code>: the popularity of a user falls with its rank, exponent 0.99;</li>
+ * <li><code>hotSet</code>: 90% of the lookups go to a hot set of half the capacity, the others to
+ * the tail;</li>
+ * <li><code>resident</code>: every user fits, the latency of a hit alone.</li>
+ * </ul>
+ * The hits and misses are reported next to the latency, and the hit ratio of the measurement
+ * iterations is printed at the end of each run. Run from the test class path, after <code>mvn test-compile</code>:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:&lt;test class path&gt; org.openjdk.jmh.Main CacheBackendBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBackendBenchmark {
+    private static final int CAPACITY = 10_000;
+    private static final int KEYS = 4 * CAPACITY;
+    // lookups drawn ahead of time, walked through by the threads
+    private static final int SEQUENCE = 1 << 20;
+    private static final double ZIPF_EXPONENT = 0.99;
+    private static final double HOT_SHARE = 0.9;
+
+    @Param({"ehcache", "caffeine"})
+    public String backendName;
+
+    @Param({"zipf", "hotSet", "resident"})
+    public String keys;
+
+    private CacheBackend backend;
+    private PluginCache<Set<String>> cache;
+    private String[] names;
+    private Set<String>[] values;
+    private int[] sequence;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        CrowdPluginConfiguration config = ConfigurationSnapshot.unconfigured();
+        backend = "caffeine".equals(backendName) ? new CaffeineBackend(config) : new EhcacheBackend(config);
+        cache = backend.create("groups", (Class<Set<String>>) (Class<?>) Set.class,
+                new CacheSettings(CAPACITY, 0, 0, 3600, 0), new StringSetSerializer(), null, null);
+        names = new String[KEYS];
+        values = new Set[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            names[i] = "user" + i;
+            values[i] = Collections.singleton("group" + i % 100);
+        }
+        sequence = sequence(keys, new Random(42));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%n%s, %s keys: hit ratio %.1f%% over %d lookups%n", backendName, keys,
+                100d * hits.sum() / Math.max(1, lookups.sum()), lookups.sum());
+        backend.close();
+    }
+
+    private static int[] sequence(String distribution, Random random) {
+        int[] sequence = new int[SEQUENCE];
+        if ("zipf".equals(distribution)) {
+            double[] cumulative = new double[KEYS];
+            double sum = 0;
+            for (int rank = 0; rank < KEYS; rank++) {
+                sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+                cumulative[rank] = sum;
+            }
+            for (int i = 0; i < SEQUENCE; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                sequence[i] = rank < 0 ? -rank - 1 : rank;
+            }
+        } else if ("hotSet".equals(distribution)) {
+            int hot = CAPACITY / 2;
+            for (int i = 0; i < SEQUENCE; i++) {
+                sequence[i] = random.nextDouble() < HOT_SHARE ? random.nextInt(hot) : hot + random.nextInt(KEYS - hot);
+            }
+        } else {
+            for (int i = 0; i < SEQUENCE; i++) {
+                sequence[i] = random.nextInt(CAPACITY);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Walks through the lookups, a different start for each thread, counting hits and misses.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Cursor {
+        private int next;
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            next = (int) (Thread.currentThread().getId() * 7919 % SEQUENCE);
+            hits = 0;
+            misses = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(CacheBackendBenchmark benchmark, IterationParams iteration) {
+            if (iteration.getType() == IterationType.MEASUREMENT) {
+                benchmark.hits.add(hits);
+                benchmark.lookups.add(hits + misses);
+            }
+        }
+
+        int key(int[] sequence) {
+            next = next + 1 == sequence.length ? 0 : next + 1;
+            return sequence[next];
+        }
+    }
+
+    @Benchmark
+    public Set<String> lookup(Cursor cursor) {
+        return lookup(cursor.key(sequence), cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Set<String> lookupContended(Cursor cursor) {
+        return lookup(cursor.key(sequence), cursor);
+    }
+
+    // a miss is loaded, as the caching client does
+    private Set<String> lookup(int key, Cursor cursor) {
+        Set<String> groups = cache.get(names[key]);
+        if (groups != null) {
+            cursor.hits++;
+            return groups;
+        }
+        cursor.misses++;
+        cache.put(names[key], values[key]);
+        return values[key];
+    }
+}
@@ -0,0 +1,600 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonatype.nexus.plugins.crowd.config.ConfigurationSnapshot;
+import org.sonatype.nexus.plugins.crowd.security.CrowdAuthorizationManager;
+import org.sonatype.nexus.plugins.crowd.security.CrowdUserManager;
+import org.sonatype.nexus.security.role.Role;
+import org.sonatype.nexus.security.role.RoleIdentifier;
+import org.sonatype.nexus.security.user.User;
+import org.sonatype.nexus.security.user.UserSearchCriteria;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Races cache loads, invalidations and concurrent misses of {@link CachingRestClient} against a
+ * stub Crowd serving the nested groups of a user as <code>&lt;username&gt;-v&lt;version&gt;</code>,
+ * the version being bumped by every change made to the user in Crowd. The first name and the
+ * password of the user carry the same version.
+ */
+public class CachingRestClientConcurrencyTest {
+    private static final String[] USERS = {"user0", "user1", "user2", "user3"};
+    private static final int READERS = 8;
+    private static final int ROUNDS = 20;
+    private static final int INVALIDATIONS_PER_ROUND = 50;
+    private static final int WAITERS = 16;
+    private static final int CHURN_ROUNDS = 5;
+    private static final int WARM_CALLS = 2000;
+    // written by the callers into what they get, never to be seen by another caller
+    private static final String INTRUDER = "intruder";
+
+    static {
+        // the stub writes headers and body apart, delayed acknowledgements would stall every request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private CachingRestClient client;
+
+    // state of the stub Crowd
+    private final Map<String, AtomicInteger> versions = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    // requests received, per endpoint
+    private final Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+    private volatile CountDownLatch gate;
+    private volatile int status = 200;
+    private volatile long delayMillis;
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/crowd/rest/usermanagement/1/user/group/nested", this::nestedGroups);
+        server.createContext("/crowd/rest/usermanagement/1/user", this::user);
+        server.createContext("/crowd/rest/usermanagement/1/authentication", this::authentication);
+        // user searches and the catalog of all groups, also loaded by the warm-up
+        server.createContext("/crowd/rest/usermanagement/1/search", this::search);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void loadsRacingInvalidationsAreNotCached() throws Exception {
+        client = client(new Properties());
+        for (int round = 0; round < ROUNDS; round++) {
+            AtomicBoolean stop = new AtomicBoolean();
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                readers.add(executor.submit(() -> {
+                    while (!stop.get()) {
+                        String username = USERS[ThreadLocalRandom.current().nextInt(USERS.length)];
+                        Set<String> groups = client.getNestedGroups(username);
+                        assertEquals(1, groups.size());
+                        assertTrue(groups.iterator().next().startsWith(username + "-v"));
+                    }
+                    return null;
+                }));
+            }
+
+            for (int i = 0; i < INVALIDATIONS_PER_ROUND; i++) {
+                String username = USERS[ThreadLocalRandom.current().nextInt(USERS.length)];
+                version(username).incrementAndGet();
+                client.invalidate(username);
+                LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(200_000));
+            }
+            stop.set(true);
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+
+            // every load is over: a value loaded before the last invalidation would be served from the cache
+            for (String username : USERS) {
+                assertEquals("groups of " + username + " cached across an invalidation in round " + round,
+                        groups(username, version(username).get()), client.getNestedGroups(username));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentMissesShareTheLeaderResult() throws Exception {
+        client = client(new Properties());
+        gate = new CountDownLatch(1);
+        List<Future<Set<String>>> lookups = concurrentLookups("jdoe");
+        gate.countDown();
+
+        Set<String> shared = lookups.get(0).get(10, TimeUnit.SECONDS);
+        assertEquals(groups("jdoe", 0), shared);
+        for (Future<Set<String>> lookup : lookups) {
+            assertSame(shared, lookup.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void concurrentMissesShareTheLeaderException() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("retryMaxAttempts", "1");
+        client = client(properties);
+        status = 500;
+        gate = new CountDownLatch(1);
+        List<Future<Set<String>>> lookups = concurrentLookups("jdoe");
+        gate.countDown();
+
+        Throwable shared = failureOf(lookups.get(0));
+        assertTrue(shared instanceof RestException);
+        for (Future<Set<String>> lookup : lookups) {
+            assertSame(shared, failureOf(lookup));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void lastKnownGroupsServedUntilInvalidated() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("cache.groups.ttl", "1");
+        properties.setProperty("interactiveDeadline", "1000");
+        properties.setProperty("retryMaxAttempts", "1");
+        client = client(properties);
+        // the JAXB contexts alone could take longer than the deadline on a cold JVM
+        client.warmUp().get(30, TimeUnit.SECONDS);
+        assertEquals(groups("jdoe", 0), client.getNestedGroups("jdoe"));
+
+        // expired, and Crowd no longer answers within the deadline
+        Thread.sleep(1500);
+        delayMillis = 3000;
+        assertEquals(groups("jdoe", 0), client.getNestedGroups("jdoe"));
+
+        client.invalidate("jdoe");
+        try {
+            client.getNestedGroups("jdoe");
+            fail("groups known before the invalidation served after it");
+        } catch (RequestRejectedException expected) {
+        }
+    }
+
+    @Test
+    public void lastKnownGroupsNotServedPastTheMaxAge() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("cache.groups.ttl", "1");
+        properties.setProperty("staleMaxAge", "4");
+        properties.setProperty("interactiveDeadline", "1000");
+        properties.setProperty("retryMaxAttempts", "1");
+        client = client(properties);
+        client.warmUp().get(30, TimeUnit.SECONDS);
+        assertEquals(groups("jdoe", 0), client.getNestedGroups("jdoe"));
+
+        Thread.sleep(1500);
+        delayMillis = 3000;
+        try (LastKnown lastKnown = LastKnown.watch()) {
+            assertEquals(groups("jdoe", 0), client.getNestedGroups("jdoe"));
+            assertTrue("last known answer not reported", lastKnown.wasServed());
+        }
+
+        // past the maximum age once the deadline of this lookup is over
+        Thread.sleep(2000);
+        try {
+            client.getNestedGroups("jdoe");
+            fail("groups older than the maximum age served");
+        } catch (RequestRejectedException expected) {
+        }
+    }
+
+    @Test
+    public void managersServeConsistentUsersAndRolesUnderChurn() throws Exception {
+        Properties properties = new Properties();
+        // passwords change under the callers, a lockout would fail the checks that follow
+        properties.setProperty("authFailureLimit", "0");
+        client = client(properties);
+        client.warmUp().get(30, TimeUnit.SECONDS);
+        CrowdUserManager userManager = new CrowdUserManager(client);
+        CrowdAuthorizationManager authorizationManager = new CrowdAuthorizationManager(client);
+
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        AtomicInteger rejectedPasswords = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Future<?>> readers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(executor.submit(() -> {
+                while (!stop.get()) {
+                    String username = USERS[ThreadLocalRandom.current().nextInt(USERS.length)];
+                    switch (ThreadLocalRandom.current().nextInt(4)) {
+                    case 0:
+                        try {
+                            client.authenticate(username, password(username, version(username).get()));
+                        } catch (RestException re) {
+                            // changed since it was read
+                            rejectedPasswords.incrementAndGet();
+                        }
+                        count(calls, "authenticate");
+                        break;
+                    case 1:
+                        User user = userManager.getUser(username);
+                        checkAndTamper(username, user);
+                        count(calls, "getUser");
+                        break;
+                    case 2:
+                        Set<User> found = userManager.searchUsers(criteria("user"));
+                        assertEquals(USERS.length, found.size());
+                        for (User each : found) {
+                            checkAndTamper(each.getUserId(), each);
+                        }
+                        count(calls, "searchUsers");
+                        break;
+                    default:
+                        Set<Role> roles = authorizationManager.listRoles();
+                        assertNotNull(roles);
+                        for (Role role : roles) {
+                            checkAndTamper(role);
+                        }
+                        count(calls, "listRoles");
+                    }
+                }
+                return null;
+            }));
+        }
+
+        int invalidations = 0;
+        for (int round = 0; round < CHURN_ROUNDS; round++) {
+            for (int i = 0; i < INVALIDATIONS_PER_ROUND; i++, invalidations++) {
+                String username = USERS[ThreadLocalRandom.current().nextInt(USERS.length)];
+                version(username).incrementAndGet();
+                client.invalidate(username);
+                // a few seconds in all, for the callers to get going between changes
+                LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(20_000_000));
+            }
+        }
+        stop.set(true);
+        for (Future<?> reader : readers) {
+            reader.get(10, TimeUnit.SECONDS);
+        }
+        printThroughput("under churn", calls, System.nanoTime() - start);
+
+        // a load is repeated at most once per invalidation it raced and once per invalidation that
+        // removed its result; callers missing while a load ends may start one more
+        int loads = USERS.length * (1 + 2 * invalidations) + READERS;
+        assertAtMost("user", loads);
+        assertAtMost("authentication", loads + rejectedPasswords.get());
+        // authentications fetch the groups of the user meanwhile
+        assertAtMost("nested groups", loads + received("authentication"));
+        assertAtMost("search groups", 1 + 2 * invalidations + READERS);
+
+        for (String username : USERS) {
+            int version = version(username).get();
+            checkAndTamper(username, userManager.getUser(username));
+            assertEquals(Collections.singleton(new RoleIdentifier(CrowdUserManager.SOURCE, username + "-v" + version)),
+                    userManager.getUser(username).getRoles());
+            client.authenticate(username, password(username, version));
+            if (version > 0) {
+                try {
+                    client.authenticate(username, password(username, version - 1));
+                    fail("password of " + username + " accepted after it changed");
+                } catch (RestException expected) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void warmManagersSendNoRequests() throws Exception {
+        client = client(new Properties());
+        client.warmUp().get(30, TimeUnit.SECONDS);
+        CrowdUserManager userManager = new CrowdUserManager(client);
+        CrowdAuthorizationManager authorizationManager = new CrowdAuthorizationManager(client);
+        for (String username : USERS) {
+            client.authenticate(username, password(username, 0));
+            userManager.getUser(username);
+        }
+        authorizationManager.listRoles();
+        Map<String, Integer> loaded = receivedSoFar();
+
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        CountDownLatch ready = new CountDownLatch(READERS);
+        List<Future<?>> readers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(executor.submit(() -> {
+                ready.countDown();
+                ready.await();
+                for (int call = 0; call < WARM_CALLS; call++) {
+                    String username = USERS[call % USERS.length];
+                    switch (call % 3) {
+                    case 0:
+                        client.authenticate(username, password(username, 0));
+                        count(calls, "authenticate");
+                        break;
+                    case 1:
+                        checkAndTamper(username, userManager.getUser(username));
+                        count(calls, "getUser");
+                        break;
+                    default:
+                        for (Role role : authorizationManager.listRoles()) {
+                            checkAndTamper(role);
+                        }
+                        count(calls, "listRoles");
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> reader : readers) {
+            reader.get(30, TimeUnit.SECONDS);
+        }
+        printThroughput("warm", calls, System.nanoTime() - start);
+
+        assertEquals("requests sent with every entry cached", loaded, receivedSoFar());
+    }
+
+    private CachingRestClient client(Properties properties) {
+        properties.setProperty("applicationName", "nexus");
+        properties.setProperty("applicationPassword", "secret");
+        properties.setProperty("crowdServerUrl", "http://127.0.0.1:" + server.getAddress().getPort() + "/crowd/");
+        properties.setProperty("httpMaxConnections", String.valueOf(WAITERS + READERS));
+        return new CachingRestClient(new ConfigurationSnapshot(properties), new CrowdMetrics(), new MappedGroups(() -> null));
+    }
+
+    /**
+     * Starts lookups of <code>username</code> and returns once one of them is sending the only
+     * request to Crowd and the others wait for it.
+     */
+    private List<Future<Set<String>>> concurrentLookups(String username) throws InterruptedException {
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Set<String>>> lookups = new ArrayList<>();
+        for (int i = 0; i < WAITERS; i++) {
+            lookups.add(executor.submit(() -> {
+                threads.add(Thread.currentThread());
+                return client.getNestedGroups(username);
+            }));
+        }
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (requests.get() == 0 || waiting(threads) < WAITERS - 1) {
+            assertTrue("lookups never joined the request in flight", System.nanoTime() < timeout);
+            Thread.sleep(1);
+        }
+        return lookups;
+    }
+
+    private static int waiting(List<Thread> threads) {
+        synchronized (threads) {
+            return (int) threads.stream().filter(thread -> thread.getState() == Thread.State.WAITING).count();
+        }
+    }
+
+    private static Throwable failureOf(Future<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException ee) {
+            assertNotNull(ee.getCause());
+            return ee.getCause();
+        }
+        fail("lookup did not fail");
+        return null;
+    }
+
+    /**
+     * Checks that <code>user</code> is <code>username</code> with its own groups and nothing another
+     * caller wrote, then writes into it.
+     */
+    private static void checkAndTamper(String username, User user) {
+        assertEquals(username, user.getUserId());
+        assertEquals(CrowdUserManager.SOURCE, user.getSource());
+        assertTrue("first name of " + username + ": " + user.getFirstName(), user.getFirstName().startsWith(username + "-v"));
+        assertEquals("roles of " + username + ": " + user.getRoles(), 1, user.getRoles().size());
+        RoleIdentifier role = user.getRoles().iterator().next();
+        assertEquals(CrowdUserManager.SOURCE, role.getSource());
+        assertTrue("roles of " + username + ": " + user.getRoles(), role.getRoleId().startsWith(username + "-v"));
+
+        user.setFirstName(INTRUDER);
+        user.getRoles().add(new RoleIdentifier(CrowdUserManager.SOURCE, INTRUDER));
+    }
+
+    private static void checkAndTamper(Role role) {
+        assertTrue(role.getRoleId(), role.getRoleId().matches("user\\d-v\\d+"));
+        assertEquals(role.getRoleId(), role.getName());
+        assertEquals(CrowdUserManager.SOURCE, role.getSource());
+        assertFalse("roles of " + role.getRoleId() + ": " + role.getRoles(), role.getRoles().contains(INTRUDER));
+        assertFalse("privileges of " + role.getRoleId() + ": " + role.getPrivileges(), role.getPrivileges().contains(INTRUDER));
+
+        role.setName(INTRUDER);
+        role.getRoles().add(INTRUDER);
+        role.getPrivileges().add(INTRUDER);
+    }
+
+    private static UserSearchCriteria criteria(String userId) {
+        UserSearchCriteria criteria = new UserSearchCriteria();
+        criteria.setSource(CrowdUserManager.SOURCE);
+        criteria.setUserId(userId);
+        return criteria;
+    }
+
+    private static void count(Map<String, AtomicInteger> counters, String key) {
+        counters.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private int received(String endpoint) {
+        AtomicInteger count = received.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    private Map<String, Integer> receivedSoFar() {
+        Map<String, Integer> counts = new HashMap<>();
+        received.forEach((endpoint, count) -> counts.put(endpoint, count.get()));
+        return counts;
+    }
+
+    private void assertAtMost(String endpoint, int bound) {
+        assertTrue(received(endpoint) + " " + endpoint + " requests, expected at most " + bound, received(endpoint) <= bound);
+    }
+
+    private void printThroughput(String phase, Map<String, AtomicInteger> calls, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder report = new StringBuilder("Managers ").append(phase).append(':');
+        calls.forEach((call, count) -> report.append(String.format(" %s %.0f/s", call, count.get() / seconds)));
+        report.append(", requests to Crowd ").append(receivedSoFar());
+        System.out.println(report);
+    }
+
+    private AtomicInteger version(String username) {
+        return versions.computeIfAbsent(username, key -> new AtomicInteger());
+    }
+
+    private static Set<String> groups(String username, int version) {
+        return Collections.singleton(username + "-v" + version);
+    }
+
+    private static String password(String username, int version) {
+        return username + "-secret-v" + version;
+    }
+
+    private static String parameter(HttpExchange exchange, String name) {
+        for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private void nestedGroups(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            count(received, "nested groups");
+            String username = parameter(exchange, "username");
+            // read before answering late, as Crowd answers with what it had when the request came in
+            int version = version(username).get();
+            CountDownLatch g = gate;
+            if (g != null) {
+                g.await();
+            }
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(500_000));
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            respond(exchange, "<groups><group name=\"" + username + "-v" + version + "\"/></groups>");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void user(HttpExchange exchange) throws IOException {
+        try {
+            count(received, "user");
+            String username = parameter(exchange, "username");
+            respond(exchange, "<user name=\"" + username + "\"><first-name>" + username + "-v" + version(username).get()
+                    + "</first-name><last-name>Doe</last-name><email>" + username + "@example.com</email>"
+                    + "<active>true</active></user>");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void authentication(HttpExchange exchange) throws IOException {
+        try {
+            count(received, "authentication");
+            String username = parameter(exchange, "username");
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (body.contains("<value>" + password(username, version(username).get()) + "</value>")) {
+                respond(exchange, "<user name=\"" + username + "\"/>");
+            } else {
+                respond(exchange, 400, "<error><reason>INVALID_USER_AUTHENTICATION</reason></error>");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // users named like the search, or the current group of every user, paged
+    private void search(HttpExchange exchange) throws IOException {
+        try {
+            boolean users = "user".equals(parameter(exchange, "entity-type"));
+            count(received, users ? "search users" : "search groups");
+            List<String> names = new ArrayList<>();
+            for (String username : USERS) {
+                names.add(users ? username : username + "-v" + version(username).get());
+            }
+            int from = Math.min(Integer.parseInt(parameter(exchange, "start-index")), names.size());
+            int to = Math.min(from + Integer.parseInt(parameter(exchange, "max-results")), names.size());
+            StringBuilder xml = new StringBuilder(users ? "<users>" : "<groups>");
+            for (String name : names.subList(from, to)) {
+                xml.append(users ? "<user name=\"" : "<group name=\"").append(name).append("\"/>");
+            }
+            respond(exchange, xml.append(users ? "</users>" : "</groups>").toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String xml) throws IOException {
+        respond(exchange, 200, xml);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonatype.nexus.plugins.crowd.config.ConfigurationSnapshot;
+
+public class HttpTransportTest {
+    private HttpTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("applicationName", "nexus");
+        properties.setProperty("applicationPassword", "secret");
+        properties.setProperty("crowdServerUrl", "http://127.0.0.1:1/crowd/");
+        transport = new HttpTransport(new ConfigurationSnapshot(properties), new CrowdMetrics());
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+    }
+
+    @Test
+    public void drainWaitsForOperationsHoldingNoConnection() throws Exception {
+        // an operation between two pages: acquired, nothing leased
+        assertTrue(transport.acquire());
+        Thread drainer = new Thread(() -> transport.drain(TimeUnit.SECONDS.toMillis(30)));
+        drainer.start();
+
+        drainer.join(500);
+        assertTrue("transport closed under a running operation", drainer.isAlive());
+        // the next page still gets its abort scheduled
+        transport.schedule(() -> { }, 1, TimeUnit.SECONDS).cancel(false);
+
+        transport.release();
+        drainer.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse("transport not closed once the operation ended", drainer.isAlive());
+    }
+
+    @Test
+    public void drainedTransportRefusesNewOperations() throws Exception {
+        transport.drain(0);
+        assertFalse(transport.acquire());
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.SocketTimeoutException;
+
+import javax.xml.bind.UnmarshalException;
+import org.apache.http.HttpException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void ioErrorsAreRetried() {
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException("Read timed out")));
+        assertTrue(RetryPolicy.isRetryable(new UnmarshalException(new SocketTimeoutException("Read timed out"))));
+    }
+
+    @Test
+    public void responsesTheClientCannotHandleAreNotRetried() {
+        // how HttpClient reports an unsupported Content-Encoding
+        HttpException unsupported = new HttpException("Unsupported Content-Encoding: br");
+        assertFalse(RetryPolicy.isRetryable(new ClientProtocolException(unsupported)));
+    }
+
+    @Test
+    public void exhaustedPoolIsNotRetried() {
+        assertFalse(RetryPolicy.isRetryable(new ConnectionPoolTimeoutException("Timeout waiting for connection from pool")));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * This program is licensed to you under the Apache License Version 2.0,
+ * and you may not use this file except in compliance with the Apache License Version 2.0.
+ * You may obtain a copy of the Apache License Version 2.0 at http://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the Apache License Version 2.0 is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Apache License Version 2.0 for the specific language governing permissions and limitations there under.
+ */
+package org.sonatype.nexus.plugins.crowd.client.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+    private static final int WAITERS = 16;
+
+    private final SingleFlight<Object> flights = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void waitersGetTheLeaderResult() throws Exception {
+        Object value = new Object();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Object> leader = executor.submit(() -> flights.load("jdoe", () -> {
+            calls.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return value;
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        List<Future<Object>> waiters = startWaiters("jdoe");
+        release.countDown();
+
+        assertSame(value, leader.get(5, TimeUnit.SECONDS));
+        for (Future<Object> waiter : waiters) {
+            assertSame(value, waiter.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void waitersGetTheLeaderException() throws Exception {
+        RestException failure = new RestException("Crowd is down");
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Object> leader = executor.submit(() -> flights.load("jdoe", () -> {
+            calls.incrementAndGet();
+            loading.countDown();
+            await(release);
+            throw failure;
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        List<Future<Object>> waiters = startWaiters("jdoe");
+        release.countDown();
+
+        assertSame(failure, failureOf(leader));
+        for (Future<Object> waiter : waiters) {
+            assertSame(failure, failureOf(waiter));
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void waiterGivesUpAtItsDeadline() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Object> leader = executor.submit(() -> flights.load("jdoe", () -> {
+            loading.countDown();
+            await(release);
+            return "groups";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        try {
+            Deadline.within(50, () -> flights.load("jdoe", () -> {
+                fail("joined the load in flight");
+                return null;
+            }));
+            fail("waited past its deadline");
+        } catch (DeadlineExceededException expected) {
+        }
+        release.countDown();
+        assertEquals("groups", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void completedLoadIsNotRemembered() throws Exception {
+        flights.load("jdoe", () -> calls.incrementAndGet());
+        flights.load("jdoe", () -> calls.incrementAndGet());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void keysLoadIndependently() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Object> leader = executor.submit(() -> flights.load("jdoe", () -> {
+            loading.countDown();
+            await(release);
+            return "jdoe";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        assertEquals("asmith", flights.load("asmith", () -> "asmith"));
+        release.countDown();
+        assertEquals("jdoe", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Starts waiters on <code>key</code> and returns once they all wait for the load in flight.
+     */
+    private List<Future<Object>> startWaiters(String key) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        List<Future<Object>> waiters = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(WAITERS);
+        for (int i = 0; i < WAITERS; i++) {
+            waiters.add(executor.submit(() -> {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread());
+                }
+                started.countDown();
+                return flights.load(key, () -> {
+                    calls.incrementAndGet();
+                    return null;
+                });
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        synchronized (threads) {
+            for (Thread thread : threads) {
+                while (thread.getState() != Thread.State.WAITING) {
+                    assertTrue("waiter never blocked on the load in flight", System.nanoTime() < timeout);
+                    Thread.sleep(1);
+                }
+            }
+        }
+        return waiters;
+    }
+
+    private static Throwable failureOf(Future<Object> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException ee) {
+            return ee.getCause();
+        }
+        fail("load did not fail");
+        return null;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}